@@ -1,17 +1,22 @@
 package me.armar.plugins.autorank;
 
+import java.io.File;
 import java.io.IOException;
+import java.sql.ResultSet;
 import me.armar.plugins.autorank.addons.AddOnManager;
 import me.armar.plugins.autorank.api.API;
 import me.armar.plugins.autorank.backup.BackupManager;
 import me.armar.plugins.autorank.commands.manager.CommandsManager;
 import me.armar.plugins.autorank.config.ConfigHandler;
+import me.armar.plugins.autorank.config.ConfigHandler.StorageType;
+import me.armar.plugins.autorank.data.SQLDataStorage;
 import me.armar.plugins.autorank.data.SimpleYamlConfiguration;
 import me.armar.plugins.autorank.debugger.Debugger;
 import me.armar.plugins.autorank.hooks.DependencyManager;
 import me.armar.plugins.autorank.language.LanguageHandler;
 import me.armar.plugins.autorank.leaderboard.Leaderboard;
 import me.armar.plugins.autorank.listeners.PlayerJoinListener;
+import me.armar.plugins.autorank.listeners.PlayerQuitListener;
 import me.armar.plugins.autorank.metrics.Metrics;
 import me.armar.plugins.autorank.metrics.Metrics.Graph;
 import me.armar.plugins.autorank.mysql.wrapper.MySQLWrapper;
@@ -49,6 +54,8 @@ public class Autorank extends JavaPlugin {
     private ConfigHandler configHandler;
     private Debugger debugger;
     private DependencyManager dependencyManager;
+    // Local database (Autorank.db), only used for sqlite storage
+    private SQLDataStorage embeddedDatabase;
     private LanguageHandler languageHandler;
     private Leaderboard leaderboard;
     // Metrics (for custom data)
@@ -132,6 +139,16 @@ public class Autorank extends JavaPlugin {
         return getDependencyManager().getStatsPlugin();
     }
 
+    /**
+     * Get the local database that stores playtimes, progress of players and UUIDs when sqlite
+     * storage is used.
+     *
+     * @return the local database, or null if another storage is used (or it could not be opened).
+     */
+    public SQLDataStorage getEmbeddedDatabase() {
+        return embeddedDatabase;
+    }
+
     public LanguageHandler getLanguageHandler() {
         return languageHandler;
     }
@@ -186,10 +203,21 @@ public class Autorank extends JavaPlugin {
         // Make sure all tasks are cancelled after shutdown. This seems obvious, but when a player /reloads, the server creates an instance of the plugin which causes duplicate tasks to run.
         getServer().getScheduler().cancelTasks(this);
 
-        playtimes.save();
+        playtimes.close();
+
+        getMySQLWrapper().close();
 
         getUUIDStorage().saveAllFiles();
 
+        if (leaderboard != null) {
+            leaderboard.getExemptions().save();
+        }
+
+        if (embeddedDatabase != null) {
+            embeddedDatabase.close();
+            embeddedDatabase = null;
+        }
+
         setPlaytimes(null);
 
         setWarningManager(null);
@@ -254,6 +282,11 @@ public class Autorank extends JavaPlugin {
         // Create backup manager
         setBackupManager(new BackupManager(this));
 
+        // Open local database before anything is loaded from it
+        if (getConfigHandler().getDataStorageType() == StorageType.SQLITE) {
+            setupEmbeddedDatabase();
+        }
+
         // Create uuid storage
         setUUIDStorage(new UUIDStorage(this));
 
@@ -275,6 +308,8 @@ public class Autorank extends JavaPlugin {
         // Register listeners
         getServer().getPluginManager().registerEvents(
                 new PlayerJoinListener(this), this);
+        getServer().getPluginManager().registerEvents(
+                new PlayerQuitListener(this), this);
 
         // Create language classes
         setLanguageHandler(new LanguageHandler(this));
@@ -554,6 +589,42 @@ public class Autorank extends JavaPlugin {
         return uuidStorage;
     }
 
+    /**
+     * Open the local database (Autorank.db in the data folder). <br>
+     * Only one connection is used, as SQLite only allows one writer at a time anyway. The database
+     * uses a write-ahead log, so writes do not have to wait for the disk every time.
+     */
+    private void setupEmbeddedDatabase() {
+        getDataFolder().mkdirs();
+
+        final SQLDataStorage database = new SQLDataStorage("jdbc:sqlite:"
+                + new File(getDataFolder(), "Autorank.db").getAbsolutePath(),
+                "", "");
+
+        database.setDriver("org.sqlite.JDBC");
+        database.setPoolSize(1);
+        database.setMaxLifetime(0);
+
+        if (!database.connect()) {
+            getLogger().severe(
+                    "Could not open Autorank.db! Using yaml storage instead.");
+            return;
+        }
+
+        // Returns the new mode, so it cannot be executed as an update.
+        database.executeQuery("PRAGMA journal_mode = WAL",
+                new SQLDataStorage.ResultHandler<Void>() {
+
+                    @Override
+                    public Void handle(final ResultSet rs) {
+                        return null;
+                    }
+                });
+        database.execute("PRAGMA synchronous = NORMAL");
+
+        embeddedDatabase = database;
+    }
+
     public void setUUIDStorage(final UUIDStorage uuidStorage) {
         this.uuidStorage = uuidStorage;
     }
@@ -6,7 +6,6 @@ import me.armar.plugins.autorank.addons.AddOnManager;
 import me.armar.plugins.autorank.playerchecker.RankChange;
 import me.armar.plugins.autorank.playerchecker.requirement.Requirement;
 import me.armar.plugins.autorank.playerchecker.result.Result;
-import me.armar.plugins.autorank.util.uuid.UUIDManager;
 import org.bukkit.entity.Player;
 
 /**
@@ -90,7 +89,7 @@ public class API {
      */
     @Deprecated
     public int getGlobalPlayTime(final Player player) {
-        final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+        final UUID uuid = player.getUniqueId();
 
         return getGlobalPlayTime(uuid);
     }
@@ -110,7 +109,7 @@ public class API {
      */
     @Deprecated
     public int getLocalTime(final Player player) {
-        final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+        final UUID uuid = player.getUniqueId();
 
         return plugin.getPlaytimes().getLocalTime(uuid);
     }
@@ -190,7 +189,7 @@ public class API {
      * @return play time of a player. 0 when has never played before.
      */
     public int getTimeOfPlayer(final Player player) {
-        return plugin.getPlaytimes().getTimeOfPlayer(player.getName());
+        return plugin.getPlaytimes().getTimeOfPlayer(player);
     }
 
     /**
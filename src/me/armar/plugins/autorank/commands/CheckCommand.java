@@ -11,7 +11,7 @@ import me.armar.plugins.autorank.playerchecker.RankChange;
 import me.armar.plugins.autorank.playerchecker.requirement.Requirement;
 import me.armar.plugins.autorank.util.AutorankTools;
 import me.armar.plugins.autorank.util.AutorankTools.Time;
-import me.armar.plugins.autorank.util.uuid.UUIDManager;
+import me.armar.plugins.autorank.util.LayoutTemplate;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
@@ -20,8 +20,15 @@ import org.bukkit.entity.Player;
 
 public class CheckCommand extends AutorankCommand {
 
+    // Placeholders of the check command layout: player, time, groups, requirements
+    private static final String[] PLACEHOLDERS = { "&p", "&time", "&groups",
+            "&reqs" };
+
     private final Autorank plugin;
 
+    // Compiled layout, compiled again when the config has changed.
+    private volatile LayoutTemplate layout;
+
     public CheckCommand(final Autorank instance) {
         this.setUsage("/ar check [player]");
         this.setDesc("Check [player]'s status");
@@ -30,6 +37,21 @@ public class CheckCommand extends AutorankCommand {
         plugin = instance;
     }
 
+    /**
+     * Get the compiled check command layout of the config.
+     */
+    private LayoutTemplate getLayout() {
+        final String source = plugin.getConfigHandler().getCheckCommandLayout();
+        LayoutTemplate compiled = layout;
+
+        if (compiled == null || !compiled.getLayout().equals(source)) {
+            compiled = LayoutTemplate.compile(source, PLACEHOLDERS);
+            layout = compiled;
+        }
+
+        return compiled;
+    }
+
     public void check(final CommandSender sender, final Player player) {
         // Call event to let other plugins know that a player wants to check itself.
         // Create the event here
@@ -37,7 +59,7 @@ public class CheckCommand extends AutorankCommand {
         // Call the event
         Bukkit.getServer().getPluginManager().callEvent(event);
 
-        final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+        final UUID uuid = player.getUniqueId();
 
         // Check if event is cancelled.
         if (event.isCancelled()) {
@@ -68,13 +90,12 @@ public class CheckCommand extends AutorankCommand {
         final String[] groups = plugin.getPermPlugHandler()
                 .getPermissionPlugin().getPlayerGroups(player);
 
-        String layout = plugin.getConfigHandler().getCheckCommandLayout();
+        final LayoutTemplate template = getLayout();
 
-        // Start building layout
-        layout = layout.replace("&p", player.getName());
-        layout = layout.replace("&time",
-                AutorankTools.timeToString(plugin.getPlaytimes()
-                        .getTimeOfPlayer(player.getName()), Time.SECONDS));
+        // Only look up the time when it is shown.
+        final String time = template.uses(1) ? AutorankTools.timeToString(
+                plugin.getPlaytimes().getTimeOfPlayer(player),
+                Time.SECONDS) : "";
 
         final StringBuilder groupsString = new StringBuilder("");
 
@@ -91,21 +112,20 @@ public class CheckCommand extends AutorankCommand {
             }
         }
 
-        layout = layout.replace("&groups", groupsString.toString());
-
         final RankChange nextRankChange = plugin.getPlayerChecker()
                 .getNextRank(player);
 
         boolean showReqs = false;
+        String reqsString = "";
 
         if (nextRankChange == null) {
-            layout = layout.replace("&reqs", "none (last rankup group)");
+            reqsString = "none (last rankup group)";
         } else {
-            layout = layout.replace("&reqs", "");
             showReqs = true;
         }
 
-        AutorankTools.sendColoredMessage(sender, layout);
+        AutorankTools.sendColoredMessage(sender, template.render(
+                player.getName(), time, groupsString, reqsString));
 
 		// has played for
 		/*stringBuilder.append(player.getName()
@@ -6,7 +6,6 @@ import me.armar.plugins.autorank.commands.manager.AutorankCommand;
 import me.armar.plugins.autorank.language.Lang;
 import me.armar.plugins.autorank.playerchecker.RankChange;
 import me.armar.plugins.autorank.playerchecker.requirement.Requirement;
-import me.armar.plugins.autorank.util.uuid.UUIDManager;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -69,7 +68,7 @@ public class CompleteCommand extends AutorankCommand {
             return true;
         }
 
-        final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+        final UUID uuid = player.getUniqueId();
 
         // Check if the latest known group is the current group. Otherwise, reset progress
         final String currentGroup = plugin.getPermPlugHandler()
@@ -0,0 +1,46 @@
+package me.armar.plugins.autorank.commands;
+
+import me.armar.plugins.autorank.Autorank;
+import me.armar.plugins.autorank.commands.manager.AutorankCommand;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+
+public class ExportCommand extends AutorankCommand {
+
+    private final Autorank plugin;
+
+    public ExportCommand(final Autorank instance) {
+        this.setUsage("/ar export");
+        this.setDesc("Export playtimes to Data.yml.");
+        this.setPermission("autorank.export");
+
+        plugin = instance;
+    }
+
+    @Override
+    public boolean onCommand(final CommandSender sender, final Command cmd,
+            final String label, final String[] args) {
+
+        if (!plugin.getCommandsManager().hasPermission("autorank.export",
+                sender)) {
+            return true;
+        }
+
+        // Writing Data.yml can take a while.
+        plugin.getServer().getScheduler()
+                .runTaskAsynchronously(plugin, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        plugin.getPlaytimes().exportData();
+
+                        sender.sendMessage(ChatColor.GREEN
+                                + "Exported playtimes to Data.yml!");
+                    }
+                });
+
+        return true;
+    }
+
+}
@@ -6,7 +6,6 @@ import me.armar.plugins.autorank.commands.manager.AutorankCommand;
 import me.armar.plugins.autorank.language.Lang;
 import me.armar.plugins.autorank.util.AutorankTools;
 import me.armar.plugins.autorank.util.AutorankTools.Time;
-import me.armar.plugins.autorank.util.uuid.UUIDManager;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -54,8 +53,7 @@ public class GlobalCheckCommand extends AutorankCommand {
                     return true;
                 }
 
-                final UUID uuid = UUIDManager.getUUIDFromPlayer(player
-                        .getName());
+                final UUID uuid = player.getUniqueId();
 
                 final int minutes = plugin.getPlaytimes().getGlobalTime(uuid);
 
@@ -88,7 +86,7 @@ public class GlobalCheckCommand extends AutorankCommand {
             }
             final Player player = (Player) sender;
 
-            final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+            final UUID uuid = player.getUniqueId();
 
             AutorankTools.sendColoredMessage(
                     sender,
@@ -3,15 +3,18 @@ package me.armar.plugins.autorank.commands;
 import me.armar.plugins.autorank.Autorank;
 import me.armar.plugins.autorank.commands.manager.AutorankCommand;
 import me.armar.plugins.autorank.language.Lang;
+import me.armar.plugins.autorank.util.AutorankTools;
+import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 
 public class LeaderboardCommand extends AutorankCommand {
 
     private final Autorank plugin;
 
     public LeaderboardCommand(final Autorank instance) {
-        this.setUsage("/ar leaderboard");
+        this.setUsage("/ar leaderboard [page|me]");
         this.setDesc("Show the leaderboard.");
         this.setPermission("autorank.leaderboard");
 
@@ -29,6 +32,7 @@ public class LeaderboardCommand extends AutorankCommand {
 
         // Whether to broadcast
         boolean broadcast = false;
+        int page = 1;
 
         if (args.length > 1) {
 
@@ -41,7 +45,31 @@ public class LeaderboardCommand extends AutorankCommand {
                 }
 
                 // We should force to update the leaderboard first
-                plugin.getLeaderboard().updateLeaderboard();
+                // Run async because it uses UUID lookup
+                plugin.getServer().getScheduler()
+                        .runTaskAsynchronously(plugin, new Runnable() {
+
+                            @Override
+                            public void run() {
+                                plugin.getLeaderboard().updateLeaderboard();
+                                plugin.getLeaderboard().sendLeaderboard(
+                                        sender, 1);
+                            }
+                        });
+                return true;
+            } else if (args[1].equalsIgnoreCase("me")) {
+
+                if (!(sender instanceof Player)) {
+                    sender.sendMessage(ChatColor.RED
+                            + "You should be a player to see your rank!");
+                    return true;
+                }
+
+                final Player player = (Player) sender;
+
+                plugin.getLeaderboard().sendPlayerRank(sender,
+                        player.getUniqueId(), player.getName());
+                return true;
             } else if (args[1].equalsIgnoreCase("broadcast")) {
 
                 if (!sender.hasPermission("autorank.leaderboard.broadcast")) {
@@ -51,16 +79,41 @@ public class LeaderboardCommand extends AutorankCommand {
                 }
                 // Broadcast the command across the server.
                 broadcast = true;
+
+                if (args.length > 2) {
+                    page = getPage(sender, args[2]);
+                }
+            } else {
+                page = getPage(sender, args[1]);
             }
         }
 
+        if (page < 0) {
+            return true;
+        }
+
         if (!broadcast) {
-            plugin.getLeaderboard().sendLeaderboard(sender);
+            plugin.getLeaderboard().sendLeaderboard(sender, page);
         } else {
-            plugin.getLeaderboard().broadcastLeaderboard();
+            plugin.getLeaderboard().broadcastLeaderboard(sender, page);
         }
 
         return true;
     }
 
+    /**
+     * Read the page number of the arguments.
+     *
+     * @return page number, or -1 if it is not a number.
+     */
+    private int getPage(final CommandSender sender, final String arg) {
+        try {
+            return AutorankTools.stringtoInt(arg);
+        } catch (final NumberFormatException e) {
+            sender.sendMessage(ChatColor.RED + "'" + arg
+                    + "' is not a valid page number!");
+            return -1;
+        }
+    }
+
 }
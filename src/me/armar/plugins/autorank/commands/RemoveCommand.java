@@ -37,7 +37,8 @@ public class RemoveCommand extends AutorankCommand {
             return true;
         }
 
-        final UUID uuid = UUIDManager.getUUIDFromPlayer(args[1]);
+        // A player that was never stored has no time to remove.
+        final UUID uuid = UUIDManager.getUUIDFromKnownPlayer(args[1]);
 
         if (uuid == null) {
             sender.sendMessage(Lang.UNKNOWN_PLAYER.getConfigValue(args[1]));
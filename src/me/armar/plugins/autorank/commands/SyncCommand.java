@@ -1,9 +1,12 @@
 package me.armar.plugins.autorank.commands;
 
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import me.armar.plugins.autorank.Autorank;
 import me.armar.plugins.autorank.commands.manager.AutorankCommand;
+import me.armar.plugins.autorank.mysql.wrapper.GlobalTimeSync;
+import me.armar.plugins.autorank.playtimes.PlaytimesTable;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -13,7 +16,7 @@ public class SyncCommand extends AutorankCommand {
     private final Autorank plugin;
 
     public SyncCommand(final Autorank instance) {
-        this.setUsage("/ar sync");
+        this.setUsage("/ar sync [status|cancel]");
         this.setDesc("Sync MySQL database with server (Use only once per server).");
         this.setPermission("autorank.sync");
 
@@ -34,45 +37,76 @@ public class SyncCommand extends AutorankCommand {
             return true;
         }
 
-        if (!plugin.getConfigHandler().useMySQL()) {
+        if (!plugin.getConfigHandler().useMySQL()
+                || !plugin.getMySQLWrapper().isMySQLEnabled()) {
             sender.sendMessage(ChatColor.RED + "MySQL is not being used!");
             return true;
         }
 
+        final GlobalTimeSync running = plugin.getMySQLWrapper().getSync();
+        final boolean isRunning = running != null && !running.isFinished();
+
+        if (args.length > 1 && args[1].equalsIgnoreCase("status")) {
+            if (!isRunning) {
+                sender.sendMessage(ChatColor.GREEN + "No sync is running.");
+            } else {
+                sender.sendMessage(ChatColor.GREEN + "Synced "
+                        + running.getProgress() + " of " + running.getSize()
+                        + " players.");
+            }
+            return true;
+        }
+
+        if (args.length > 1 && args[1].equalsIgnoreCase("cancel")) {
+            if (!isRunning) {
+                sender.sendMessage(ChatColor.RED + "No sync is running.");
+            } else {
+                running.stop();
+            }
+            return true;
+        }
+
+        if (isRunning) {
+            sender.sendMessage(ChatColor.RED
+                    + "A sync is already running! Use /ar sync status to see its progress.");
+            return true;
+        }
+
         sender.sendMessage(ChatColor.RED
                 + "You do not have to use this command regularly. Use this only one time per server.");
 
-        // Do this async as we are accessing mysql database.
-        plugin.getServer().getScheduler()
-                .runTaskAsynchronously(plugin, new Runnable() {
-
-                    @Override
-                    public void run() {
-                        // Update all mysql records
-                        for (final UUID uuid : plugin.getPlaytimes()
-                        .getUUIDKeys()) {
-                            final int localTime = plugin.getPlaytimes()
-                            .getLocalTime(uuid);
-
-                            if (localTime <= 0) {
-                                continue;
-                            }
-
-                            final int globalTime = plugin.getPlaytimes()
-                            .getGlobalTime(uuid);
-
-                            // Update record
-                            try {
-                                plugin.getPlaytimes().setGlobalTime(uuid,
-                                        localTime + globalTime);
-                            } catch (final SQLException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                        sender.sendMessage(ChatColor.GREEN
-                                + "Successfully updated MySQL records!");
-                    }
-                });
+        // Take a snapshot of all local times in one pass, times can change in between passes.
+        // Writing them happens async, in chunks.
+        final List<UUID> snapshotUUIDs = new ArrayList<UUID>();
+        final List<Integer> snapshotTimes = new ArrayList<Integer>();
+
+        plugin.getPlaytimes().forEachLocalTime(new PlaytimesTable.Visitor() {
+
+            @Override
+            public void visit(final long mostSigBits, final long leastSigBits,
+                    final int time) {
+                if (time > 0) {
+                    snapshotUUIDs.add(new UUID(mostSigBits, leastSigBits));
+                    snapshotTimes.add(time);
+                }
+            }
+        });
+
+        final UUID[] uuids = snapshotUUIDs.toArray(new UUID[snapshotUUIDs.size()]);
+        final int[] times = new int[snapshotTimes.size()];
+
+        for (int i = 0; i < times.length; i++) {
+            times[i] = snapshotTimes.get(i);
+        }
+
+        if (plugin.getMySQLWrapper().startSync(sender, uuids, times) == null) {
+            sender.sendMessage(ChatColor.RED + "Could not start the sync!");
+            return true;
+        }
+
+        sender.sendMessage(ChatColor.GREEN + "Syncing " + uuids.length
+                + " players in the background. Use /ar sync status to see its progress, or /ar sync cancel to stop it.");
+
         return true;
     }
 
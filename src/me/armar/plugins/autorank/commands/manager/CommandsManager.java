@@ -48,6 +48,8 @@ public class CommandsManager implements TabExecutor {
                 plugin));
         registeredCommands.put(Arrays.asList("import"), new ImportCommand(
                 plugin));
+        registeredCommands.put(Arrays.asList("export"), new ExportCommand(
+                plugin));
         registeredCommands.put(Arrays.asList("complete"), new CompleteCommand(
                 plugin));
         registeredCommands
@@ -127,7 +129,7 @@ public class CommandsManager implements TabExecutor {
         if (args.length == 1) {
             // Show a list of commands if needed
             return Lists.newArrayList("help", "check", "leaderboard", "set",
-                    "add", "remove", "debug", "reload", "import", "archive",
+                    "add", "remove", "debug", "reload", "import", "export", "archive",
                     "gcheck", "complete", "sync", "syncstats", "forcecheck",
                     "convert", "track", "gset", "hooks");
         }
@@ -14,6 +14,12 @@ import me.armar.plugins.autorank.hooks.DependencyManager.dependency;
  */
 public class ConfigHandler {
 
+    public enum AccrualMode {
+
+        INTERVAL,
+        SESSION
+    }
+
     public enum MySQLOptions {
 
         DATABASE,
@@ -23,6 +29,13 @@ public class ConfigHandler {
         USERNAME
     }
 
+    public enum StorageType {
+
+        JOURNAL,
+        SQLITE,
+        YAML
+    }
+
     private final Autorank plugin;
 
     public ConfigHandler(final Autorank instance) {
@@ -47,10 +60,46 @@ public class ConfigHandler {
                         "&p has played for &time and is in group(s) &groups. Requirements to be ranked up: &reqs");
     }
 
+    /**
+     * Get the storage engine that is used to store the local play time of players.
+     *
+     * @return {@link StorageType} that is used; YAML when no valid type was given.
+     */
+    public StorageType getDataStorageType() {
+        final String type = plugin.getSettingsConfig().getString(
+                "data storage", "yaml");
+
+        if (type.equalsIgnoreCase("journal")) {
+            return StorageType.JOURNAL;
+        } else if (type.equalsIgnoreCase("sqlite")) {
+            return StorageType.SQLITE;
+        } else {
+            return StorageType.YAML;
+        }
+    }
+
+    /**
+     * Get the maximum time (in milliseconds) a staggered interval check may take per run.
+     *
+     * @return budget in milliseconds
+     */
+    public int getIntervalCheckBudget() {
+        return plugin.getSettingsConfig().getInt("staggered interval budget", 5);
+    }
+
     public int getIntervalTime() {
         return plugin.getSettingsConfig().getInt("interval check", 5);
     }
 
+    /**
+     * Get how long (in minutes) the leaderboard is kept before it is generated again.
+     *
+     * @return time in minutes
+     */
+    public int getLeaderboardCacheTime() {
+        return plugin.getSettingsConfig().getInt("leaderboard cache time", 10);
+    }
+
     public String getLeaderboardLayout() {
         return plugin.getSettingsConfig().getString("leaderboard layout",
                 "&6&r | &b&p - &7&d day(s), &h hour(s) and &m minute(s).");
@@ -60,6 +109,72 @@ public class ConfigHandler {
         return plugin.getSettingsConfig().getInt("leaderboard length", 10);
     }
 
+    /**
+     * Get the amount of pages of the leaderboard that are generated.
+     *
+     * @return amount of pages, at least 1.
+     */
+    public int getLeaderboardPages() {
+        return Math.max(1,
+                plugin.getSettingsConfig().getInt("leaderboard pages", 5));
+    }
+
+    /**
+     * Get after how long (in seconds) a database connection that is still in use is reported as
+     * leaked.
+     *
+     * @return time in seconds, 0 when disabled
+     */
+    public int getMySQLLeakThreshold() {
+        return plugin.getSettingsConfig().getInt("sql.leak detection", 60);
+    }
+
+    /**
+     * Get after how long (in minutes) a database connection is replaced by a new one.
+     *
+     * @return time in minutes
+     */
+    public int getMySQLMaxLifetime() {
+        return plugin.getSettingsConfig().getInt("sql.max lifetime", 30);
+    }
+
+    /**
+     * Get the maximum amount of connections to the database.
+     *
+     * @return maximum amount of connections
+     */
+    public int getMySQLPoolSize() {
+        return plugin.getSettingsConfig().getInt("sql.pool size", 4);
+    }
+
+    /**
+     * Get the amount of ticks to wait between two chunks of /ar sync.
+     *
+     * @return time in ticks
+     */
+    public int getMySQLSyncChunkDelay() {
+        return plugin.getSettingsConfig().getInt("sql.sync chunk delay", 2);
+    }
+
+    /**
+     * Get the amount of players that are synced at once by /ar sync.
+     *
+     * @return amount of players
+     */
+    public int getMySQLSyncChunkSize() {
+        return plugin.getSettingsConfig().getInt("sql.sync chunk size", 500);
+    }
+
+    /**
+     * Get how often (in seconds) the global times that other servers changed are read from the
+     * database.
+     *
+     * @return time in seconds
+     */
+    public int getMySQLSyncInterval() {
+        return plugin.getSettingsConfig().getInt("sql.sync interval", 5);
+    }
+
     public String getMySQLSettings(final MySQLOptions option) {
         switch (option) {
             case HOSTNAME:
@@ -82,6 +197,15 @@ public class ConfigHandler {
                 "ranks." + group + ".results.rank change");
     }
 
+    /**
+     * Get the maximum time (in milliseconds) rank checks may take per tick.
+     *
+     * @return budget in milliseconds
+     */
+    public int getRankCheckBudget() {
+        return plugin.getSettingsConfig().getInt("rank check budget", 5);
+    }
+
     public Set<String> getRanks() {
         return plugin.getAdvancedConfig().getConfigurationSection("ranks")
                 .getKeys(false);
@@ -178,6 +302,27 @@ public class ConfigHandler {
         return Lists.newArrayList(results);
     }
 
+    public AccrualMode getTimeAccrualMode() {
+        final String mode = plugin.getSettingsConfig().getString(
+                "time accrual", "interval");
+
+        if (mode.equalsIgnoreCase("session")) {
+            return AccrualMode.SESSION;
+        } else {
+            return AccrualMode.INTERVAL;
+        }
+    }
+
+    /**
+     * Get the time names that are not known by Mojang are remembered, so they are not looked up
+     * again.
+     *
+     * @return time in minutes
+     */
+    public int getUnknownNameCacheTime() {
+        return plugin.getSettingsConfig().getInt("unknown name cache time", 30);
+    }
+
     /**
      * Gets whether a requirement is optional for a certain group
      *
@@ -262,6 +407,17 @@ public class ConfigHandler {
         return plugin.getSettingsConfig().getBoolean("use debug", false);
     }
 
+    /**
+     * Whether the leaderboard should rank the global time of all servers (read from the MySQL
+     * database) instead of the time on this server.
+     *
+     * @return true if global; false otherwise.
+     */
+    public boolean useGlobalLeaderboard() {
+        return plugin.getSettingsConfig().getBoolean("leaderboard global",
+                false);
+    }
+
     public boolean useMySQL() {
         return plugin.getSettingsConfig().getBoolean("sql.enabled");
     }
@@ -271,6 +427,17 @@ public class ConfigHandler {
                 false);
     }
 
+    /**
+     * Whether the interval check should be spread over the interval instead of checking all
+     * players at once.
+     *
+     * @return true if staggered; false otherwise.
+     */
+    public boolean useStaggeredIntervalCheck() {
+        return plugin.getSettingsConfig().getBoolean(
+                "staggered interval check", false);
+    }
+
     /**
      * Get the plugin that is used to get the time a player played on this server. <br>
      * This is only accounted for the local time. The global time is still calculated by Autorank.
@@ -0,0 +1,410 @@
+package me.armar.plugins.autorank.data;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small pool of JDBC connections, so multiple threads can talk to the database at the same time.
+ * <br>
+ * Idle connections are validated before they are handed out, connections are replaced after
+ * their maximum lifetime and connections that are borrowed for too long are reported (with the
+ * stack trace of the code that borrowed them). Every connection keeps a cache of prepared
+ * statements.
+ */
+public class SQLConnectionPool {
+
+    /**
+     * A connection of the pool. Always give it back with
+     * {@link SQLConnectionPool#release(PooledConnection, boolean)}.
+     */
+    public static class PooledConnection {
+
+        private final Connection connection;
+        private final long created;
+        private long lastUsed;
+
+        private long borrowedAt;
+        private Exception borrowedBy;
+        private boolean leakReported;
+
+        // Prepared statements, the least recently used one is closed when the cache is full.
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(
+                16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= STATEMENT_CACHE_SIZE) {
+                    return false;
+                }
+
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+
+        private PooledConnection(final Connection connection) {
+            this.connection = connection;
+            this.created = System.currentTimeMillis();
+            this.lastUsed = created;
+        }
+
+        private void close() {
+            for (final PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+
+            statements.clear();
+
+            try {
+                connection.close();
+            } catch (final SQLException e) {
+                // Nothing we can do about it.
+            }
+        }
+
+        /**
+         * Get the JDBC connection. Do not close it, release the pooled connection instead.
+         *
+         * @return JDBC connection
+         */
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Get a prepared statement for the given SQL. Statements are cached, so do not close the
+         * statement (only close its result sets).
+         *
+         * @param sql SQL of the statement
+         * @return prepared statement
+         * @throws SQLException when the statement could not be prepared
+         */
+        public PreparedStatement prepareStatement(final String sql)
+                throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            } else {
+                statement.clearParameters();
+            }
+
+            return statement;
+        }
+    }
+
+    /**
+     * Amount of prepared statements that are cached per connection.
+     */
+    public static final int STATEMENT_CACHE_SIZE = 32;
+
+    // Idle connections are validated when they have not been used for this long (ms).
+    private static final long VALIDATION_INTERVAL = 30000L;
+
+    // How long to wait (ms) for a connection when all of them are in use.
+    private static final long BORROW_TIMEOUT = 30000L;
+
+    private static void closeQuietly(final PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (final SQLException e) {
+            // Nothing we can do about it.
+        }
+    }
+
+    private final String url, username, password;
+    private final int maxSize;
+    private final long maxLifetime;
+    private final long leakThreshold;
+    private final Logger logger;
+
+    private volatile long borrowTimeout = BORROW_TIMEOUT;
+
+    // Most recently used connections are at the front.
+    private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+    private final Set<PooledConnection> borrowed = new HashSet<PooledConnection>();
+
+    // Connections that are being opened right now.
+    private int opening = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a new pool. No connections are opened until they are needed.
+     *
+     * @param url JDBC url of the database
+     * @param username Username
+     * @param password Password
+     * @param maxSize Maximum amount of open connections
+     * @param maxLifetime Time (in ms) after which a connection is replaced, 0 to keep connections
+     *            forever
+     * @param leakThreshold Time (in ms) after which a borrowed connection is reported as leaked, 0
+     *            to disable leak detection
+     * @param logger Logger to report problems to
+     */
+    public SQLConnectionPool(final String url, final String username,
+            final String password, final int maxSize, final long maxLifetime,
+            final long leakThreshold, final Logger logger) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.maxLifetime = maxLifetime;
+        this.leakThreshold = leakThreshold;
+        this.logger = logger;
+    }
+
+    /**
+     * Borrow a connection from the pool. Blocks when all connections are in use. <br>
+     * Always give it back with {@link #release(PooledConnection, boolean)}, in a finally block.
+     *
+     * @return a valid connection
+     * @throws SQLException when no connection could be opened, or the pool is closed.
+     */
+    public PooledConnection borrow() throws SQLException {
+        final long deadline = System.currentTimeMillis() + borrowTimeout;
+
+        while (true) {
+            PooledConnection connection = null;
+
+            synchronized (this) {
+                detectLeaks();
+
+                while (!closed && idle.isEmpty()
+                        && borrowed.size() + opening >= maxSize) {
+                    final long wait = deadline - System.currentTimeMillis();
+
+                    if (wait <= 0) {
+                        throw new SQLException(
+                                "Timed out waiting for a database connection ("
+                                        + maxSize + " in use)");
+                    }
+
+                    try {
+                        wait(wait);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException(
+                                "Interrupted while waiting for a database connection");
+                    }
+                }
+
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+
+                if (idle.isEmpty()) {
+                    // Open a new one outside of the lock.
+                    opening++;
+                } else {
+                    connection = idle.removeFirst();
+                    markBorrowed(connection);
+                }
+            }
+
+            if (connection == null) {
+                return open();
+            }
+
+            if (isUsable(connection)) {
+                return connection;
+            }
+
+            // Connection is broken or too old, throw it away and try again.
+            release(connection, true);
+        }
+    }
+
+    /**
+     * Close all connections. Connections that are still borrowed are closed when they are
+     * released.
+     */
+    public synchronized void close() {
+        closed = true;
+
+        for (final PooledConnection connection : idle) {
+            connection.close();
+        }
+
+        idle.clear();
+
+        notifyAll();
+    }
+
+    /**
+     * Report connections that are borrowed for longer than the leak threshold.
+     */
+    private void detectLeaks() {
+        if (leakThreshold <= 0) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        for (final PooledConnection connection : borrowed) {
+            if (!connection.leakReported
+                    && now - connection.borrowedAt > leakThreshold) {
+                connection.leakReported = true;
+
+                logger.log(Level.WARNING, "A database connection has been in use for "
+                        + (now - connection.borrowedAt)
+                        + " ms, it was probably not released. It was borrowed here:",
+                        connection.borrowedBy);
+            }
+        }
+    }
+
+    /**
+     * Get the amount of connections that are open (idle or in use).
+     *
+     * @return amount of open connections
+     */
+    public synchronized int getSize() {
+        return idle.size() + borrowed.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Set how long {@link #borrow()} waits (in ms) for a connection when all of them are in use.
+     *
+     * @param borrowTimeout Time to wait (in ms)
+     */
+    void setBorrowTimeout(final long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    private boolean isExpired(final PooledConnection connection) {
+        return maxLifetime > 0
+                && System.currentTimeMillis() - connection.created > maxLifetime;
+    }
+
+    /**
+     * Check whether a connection taken from the idle list can still be used.
+     */
+    private boolean isUsable(final PooledConnection connection) {
+        if (isExpired(connection)) {
+            return false;
+        }
+
+        // Recently used, so it is most likely still fine.
+        if (System.currentTimeMillis() - connection.lastUsed < VALIDATION_INTERVAL) {
+            return true;
+        }
+
+        try {
+            return connection.connection.isValid(5);
+        } catch (final SQLException e) {
+            return false;
+        }
+    }
+
+    private void markBorrowed(final PooledConnection connection) {
+        connection.borrowedAt = System.currentTimeMillis();
+        connection.leakReported = false;
+        connection.borrowedBy = leakThreshold > 0 ? new Exception(
+                "Connection borrowed by " + Thread.currentThread().getName())
+                : null;
+
+        borrowed.add(connection);
+    }
+
+    private PooledConnection open() throws SQLException {
+        PooledConnection connection = null;
+
+        try {
+            connection = new PooledConnection(DriverManager.getConnection(url,
+                    username, password));
+        } finally {
+            synchronized (this) {
+                opening--;
+
+                if (connection != null) {
+                    markBorrowed(connection);
+                } else {
+                    // Let others try to open one.
+                    notifyAll();
+                }
+            }
+        }
+
+        return connection;
+    }
+
+    /**
+     * Give a connection back to the pool.
+     *
+     * @param connection Connection to give back
+     * @param broken Whether the connection had an error. Broken connections are closed instead of
+     *            reused.
+     */
+    public void release(final PooledConnection connection, final boolean broken) {
+        if (connection == null) {
+            return;
+        }
+
+        boolean close = broken;
+
+        synchronized (this) {
+            borrowed.remove(connection);
+
+            if (closed || isExpired(connection)) {
+                close = true;
+            }
+
+            if (!close) {
+                connection.lastUsed = System.currentTimeMillis();
+                connection.borrowedBy = null;
+                idle.addFirst(connection);
+            }
+
+            notifyAll();
+        }
+
+        if (close) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Close connections that have been idle for longer than their lifetime. <br>
+     * Can be called periodically, so expired connections do not linger.
+     */
+    public void retireExpired() {
+        final LinkedList<PooledConnection> expired = new LinkedList<PooledConnection>();
+
+        synchronized (this) {
+            final Iterator<PooledConnection> iterator = idle.iterator();
+
+            while (iterator.hasNext()) {
+                final PooledConnection connection = iterator.next();
+
+                if (isExpired(connection)) {
+                    iterator.remove();
+                    expired.add(connection);
+                }
+            }
+
+            detectLeaks();
+        }
+
+        for (final PooledConnection connection : expired) {
+            connection.close();
+        }
+    }
+}
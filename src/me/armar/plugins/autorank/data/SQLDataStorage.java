@@ -1,15 +1,68 @@
 package me.armar.plugins.autorank.data;
 
 import java.sql.*;
+import java.util.List;
+import java.util.logging.Logger;
+import me.armar.plugins.autorank.data.SQLConnectionPool.PooledConnection;
 
+/**
+ * Connects to a SQL database. All queries go through a {@link SQLConnectionPool}, so queries of
+ * different threads do not have to wait for each other, and use prepared statements.
+ */
 public class SQLDataStorage {
 
-    private Connection conn = null;
-    private final String database;
-    private final String hostname;
-    private final String password;
+    /**
+     * Reads the results of a query.
+     *
+     * @param <T> Type of the value that is read
+     */
+    public interface ResultHandler<T> {
 
+        /**
+         * Read the results of a query. The result set is closed afterwards.
+         *
+         * @param rs Results of the query
+         * @return value read from the results
+         * @throws SQLException when the results could not be read
+         */
+        public T handle(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Queries that have to be executed together, see {@link SQLDataStorage#executeTransaction}.
+     *
+     * @param <T> Type of the value that is returned
+     */
+    public interface Transaction<T> {
+
+        /**
+         * Execute the queries. Everything is rolled back when an exception is thrown.
+         *
+         * @param connection Connection to execute the queries on
+         * @return value to return from the transaction
+         * @throws SQLException when a query failed
+         */
+        public T run(PooledConnection connection) throws SQLException;
+    }
+
+    private static void printError(final String method, final SQLException ex) {
+        System.out.println("SQLDataStorage." + method);
+        System.out.println("SQLException: " + ex.getMessage());
+        System.out.println("SQLState: " + ex.getSQLState());
+        System.out.println("VendorError: " + ex.getErrorCode());
+    }
+
+    // Driver class to load, null if the driver registers itself.
+    private String driver = null;
+    private final String url;
     private final String username;
+    private final String password;
+
+    private int poolSize = 4;
+    private long maxLifetime = 30 * 60000L;
+    private long leakThreshold = 60000L;
+
+    private volatile SQLConnectionPool pool = null;
 
     /**
      * Create a new MySQL Connection
@@ -21,10 +74,33 @@ public class SQLDataStorage {
      */
     public SQLDataStorage(final String hostname, final String username,
             final String password, final String database) {
-        this.hostname = hostname;
+        this("jdbc:mysql://" + hostname + "/" + database, username, password);
+
+        this.driver = "com.mysql.jdbc.Driver";
+    }
+
+    /**
+     * Create a new connection to any database whose JDBC driver is on the classpath. <br>
+     * For example, an embedded H2 database in MySQL mode: 'jdbc:h2:mem:autorank;MODE=MySQL'.
+     *
+     * @param url JDBC url of the database
+     * @param username Username
+     * @param password Password
+     */
+    public SQLDataStorage(final String url, final String username,
+            final String password) {
+        this.url = url;
         this.username = username;
         this.password = password;
-        this.database = database;
+    }
+
+    /**
+     * Close all connections to the database.
+     */
+    public void close() {
+        if (pool != null) {
+            pool.close();
+        }
     }
 
     /**
@@ -34,24 +110,41 @@ public class SQLDataStorage {
      */
     public boolean connect() {
         try {
-            Class.forName("com.mysql.jdbc.Driver").newInstance();
+            if (driver != null) {
+                Class.forName(driver).newInstance();
+            }
+        } catch (final Exception e) {
+            e.printStackTrace();
+            return false;
+        }
 
-            //System.out.println("jdbc:mysql://" + hostname + "/" + database
-            //	+ "?" + "user=" + username + "&password=" + password);
-            final String url = "jdbc:mysql://" + hostname + "/" + database;
+        close();
 
-            conn = DriverManager.getConnection(url, username, password);
+        final SQLConnectionPool pool = new SQLConnectionPool(url, username,
+                password, poolSize, maxLifetime, leakThreshold,
+                Logger.getLogger(SQLDataStorage.class.getName()));
 
+        // Open the first connection, to see if we can connect at all.
+        PooledConnection connection = null;
+
+        try {
+            connection = pool.borrow();
         } catch (final SQLException ex) {
-            System.out.println("SQLDataStorage.connect");
-            System.out.println("SQLException: " + ex.getMessage());
-            System.out.println("SQLState: " + ex.getSQLState());
-            System.out.println("VendorError: " + ex.getErrorCode());
-        } catch (final Exception e) {
+            printError("connect", ex);
 
-            e.printStackTrace();
+            pool.close();
+            this.pool = null;
+
+            return false;
+        } finally {
+            if (connection != null) {
+                pool.release(connection, false);
+            }
         }
-        return conn != null;
+
+        this.pool = pool;
+
+        return true;
     }
 
     /**
@@ -61,95 +154,239 @@ public class SQLDataStorage {
      * @param sql Query to execute
      */
     public void execute(final String sql) {
-        Statement stmt = null;
+        executeUpdate(sql);
+    }
 
-        if (conn != null) {
-            try {
+    /**
+     * Execute a query and read its results. The statement and results are closed (or given back
+     * to the statement cache) afterwards, so nothing leaks.
+     *
+     * @param sql Query to execute, with a '?' for every parameter
+     * @param handler Handler that reads the results
+     * @param parameters Parameters of the query
+     * @return value returned by the handler, null if an error occured.
+     */
+    public <T> T executeQuery(final String sql, final ResultHandler<T> handler,
+            final Object... parameters) {
+        final SQLConnectionPool pool = this.pool;
+        final PooledConnection connection = borrow(pool, "executeQuery");
 
-                stmt = conn.createStatement();
-                stmt.execute(sql);
+        if (connection == null) {
+            return null;
+        }
 
-            } catch (final SQLException ex) {
-                System.out.println("SQLDataStorage.execute");
-                System.out.println("SQLException: " + ex.getMessage());
-                System.out.println("SQLState: " + ex.getSQLState());
-                System.out.println("VendorError: " + ex.getErrorCode());
+        boolean broken = false;
+
+        try {
+            final PreparedStatement stmt = connection.prepareStatement(sql);
+            setParameters(stmt, parameters);
+
+            final ResultSet rs = stmt.executeQuery();
+
+            try {
+                return handler.handle(rs);
             } finally {
+                rs.close();
+            }
+        } catch (final SQLException ex) {
+            printError("executeQuery", ex);
+            broken = isBroken(connection);
+            return null;
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    /**
+     * Execute the same query for a lot of rows, in one transaction. Either all rows are written,
+     * or none of them.
+     *
+     * @param sql Query to execute, with a '?' for every parameter
+     * @param rows Parameters of every row
+     * @return true if all rows were written; false otherwise.
+     */
+    public boolean executeBatch(final String sql, final List<Object[]> rows) {
+        return executeTransaction(new Transaction<Boolean>() {
 
-                if (stmt != null) {
-                    try {
-                        stmt.close();
-                    } catch (final SQLException sqlEx) {
-                    }
+            @Override
+            public Boolean run(final PooledConnection connection)
+                    throws SQLException {
+                final PreparedStatement stmt = connection.prepareStatement(sql);
 
-                    stmt = null;
+                for (final Object[] row : rows) {
+                    setParameters(stmt, row);
+                    stmt.addBatch();
                 }
+
+                stmt.executeBatch();
+                return true;
             }
+        }) == Boolean.TRUE;
+    }
+
+    /**
+     * Execute queries on one connection, in one transaction. Either all changes are written, or
+     * none of them.
+     *
+     * @param transaction Queries to execute
+     * @return value returned by the transaction, null if an error occured.
+     */
+    public <T> T executeTransaction(final Transaction<T> transaction) {
+        final SQLConnectionPool pool = this.pool;
+        final PooledConnection connection = borrow(pool, "executeTransaction");
+
+        if (connection == null) {
+            return null;
         }
 
+        boolean broken = false;
+
+        try {
+            final Connection conn = connection.getConnection();
+            conn.setAutoCommit(false);
+
+            try {
+                final T result = transaction.run(connection);
+                conn.commit();
+                return result;
+            } catch (final SQLException ex) {
+                conn.rollback();
+                throw ex;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (final SQLException ex) {
+            printError("executeTransaction", ex);
+            broken = isBroken(connection);
+            return null;
+        } finally {
+            pool.release(connection, broken);
+        }
     }
 
     /**
-     * Execute a query and returns a ResultSet. Query cannot be null.
+     * Execute a query that does not return results (insert, update, delete, create).
      *
-     * @param sql Query to execute
-     * @return ResultSet if successfully performed, null if an error occured.
+     * @param sql Query to execute, with a '?' for every parameter
+     * @param parameters Parameters of the query
+     * @return amount of changed rows, or -1 if an error occured.
      */
-    public ResultSet executeQuery(final String sql) {
-        Statement stmt = null;
-        ResultSet rs = null;
+    public int executeUpdate(final String sql, final Object... parameters) {
+        final SQLConnectionPool pool = this.pool;
+        final PooledConnection connection = borrow(pool, "executeUpdate");
 
-        if (conn != null) {
-            try {
+        if (connection == null) {
+            return -1;
+        }
 
-                stmt = conn.createStatement();
-                rs = stmt.executeQuery(sql);
+        boolean broken = false;
 
-            } catch (final SQLException ex) {
-                System.out.println("SQLDataStorage.executeQuery");
-                System.out.println("SQLException: " + ex.getMessage());
-                System.out.println("SQLState: " + ex.getSQLState());
-                System.out.println("VendorError: " + ex.getErrorCode());
+        try {
+            final PreparedStatement stmt = connection.prepareStatement(sql);
+            setParameters(stmt, parameters);
 
-            }
-            // Removed this because the ResultSet would always be null on return.
-			/*finally {
-
-             if (rs != null) {
-             try {
-             rs.close();
-             } catch (SQLException sqlEx) {
-             }
-
-             rs = null;
-             }
-
-             if (stmt != null) {
-             try {
-             stmt.close();
-             } catch (SQLException sqlEx) {
-             }
-
-             stmt = null;
-             }
-             } */
+            return stmt.executeUpdate();
+        } catch (final SQLException ex) {
+            printError("executeUpdate", ex);
+            broken = isBroken(connection);
+            return -1;
+        } finally {
+            pool.release(connection, broken);
         }
-        return rs;
     }
 
     /**
-     * Returns state of MySQL connection
+     * Borrow a connection. Callers keep the pool in a local variable and release the connection
+     * through it, so it goes back to the pool it came from even when {@link #connect()} replaces
+     * the pool in the meantime.
+     */
+    private PooledConnection borrow(final SQLConnectionPool pool,
+            final String method) {
+        if (pool == null) {
+            return null;
+        }
+
+        try {
+            return pool.borrow();
+        } catch (final SQLException ex) {
+            printError(method, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Get the pool that is used, for tasks that need a connection for more than one query.
      *
-     * @return true if closed, false if open
+     * @return connection pool or null if not connected.
      */
-    public boolean isClosed() {
+    public SQLConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Check whether a connection that gave an error can still be used. Errors in the query itself
+     * should not throw away a good connection.
+     */
+    private boolean isBroken(final PooledConnection connection) {
         try {
-            return conn.isClosed();
+            return !connection.getConnection().isValid(5);
         } catch (final SQLException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
             return true;
         }
     }
 
+    /**
+     * Returns state of MySQL connection
+     *
+     * @return true if closed, false if open
+     */
+    public boolean isClosed() {
+        return pool == null || pool.isClosed();
+    }
+
+    /**
+     * Set the JDBC driver class that has to be loaded before connecting, for drivers that do not
+     * register themselves.
+     *
+     * @param driver Class name of the driver
+     */
+    public void setDriver(final String driver) {
+        this.driver = driver;
+    }
+
+    /**
+     * Set after how long a borrowed connection is reported as leaked. Has to be set before
+     * connecting.
+     *
+     * @param leakThreshold time in milliseconds, 0 to disable leak detection
+     */
+    public void setLeakThreshold(final long leakThreshold) {
+        this.leakThreshold = leakThreshold;
+    }
+
+    /**
+     * Set after how long a connection is replaced by a new one. Has to be set before connecting.
+     *
+     * @param maxLifetime time in milliseconds, 0 to keep connections forever
+     */
+    public void setMaxLifetime(final long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    private void setParameters(final PreparedStatement stmt,
+            final Object... parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            stmt.setObject(i + 1, parameters[i]);
+        }
+    }
+
+    /**
+     * Set the maximum amount of connections. Has to be set before connecting.
+     *
+     * @param poolSize maximum amount of connections
+     */
+    public void setPoolSize(final int poolSize) {
+        this.poolSize = poolSize;
+    }
+
 }
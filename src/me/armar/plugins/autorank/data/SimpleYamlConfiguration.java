@@ -3,16 +3,42 @@ package me.armar.plugins.autorank.data;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ConcurrentModificationException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 
+/**
+ * A YAML configuration that creates itself from the jar (or from defaults) and can be saved
+ * safely while other threads are changing it.
+ * <p>
+ * Every change is counted. When nothing has changed since the last save, saving does nothing.
+ * Otherwise a copy of all values is made while changes are blocked, and that copy is written to a
+ * temporary file that replaces the real file afterwards. Where the real file cannot be replaced
+ * directly, it is first moved to a backup that is only removed once the new file is in place, and
+ * that backup is restored when the config is loaded again. A crash during saving will therefore
+ * never leave a half written (or no) file behind.
+ *
+ */
 public class SimpleYamlConfiguration extends YamlConfiguration {
 
     File file;
 
+    private final JavaPlugin plugin;
+
+    // Amount of changes made to this config (guarded by this)
+    private long modifications = 0;
+    // Amount of changes that were written to disk by the last save
+    private volatile long savedModifications = 0;
+
+    // Only one save can write to disk at the same time.
+    private final Object saveLock = new Object();
+
     public SimpleYamlConfiguration(final JavaPlugin plugin,
             final String fileName,
             final LinkedHashMap<String, Object> configDefaults,
@@ -21,10 +47,14 @@ public class SimpleYamlConfiguration extends YamlConfiguration {
          * accepts null as configDefaults -> check for resource and copies it if
          * found, makes an empty config if nothing is found
          */
+        this.plugin = plugin;
+
         final String folderPath = plugin.getDataFolder().getAbsolutePath()
                 + File.separator;
         file = new File(folderPath + fileName);
 
+        restoreBackup(plugin, file);
+
         if (file.exists() == false) {
             if (configDefaults == null) {
                 if (plugin.getResource(fileName) != null) {
@@ -44,6 +74,7 @@ public class SimpleYamlConfiguration extends YamlConfiguration {
 
                 try {
                     this.save(file);
+                    savedModifications = modifications;
                     plugin.getLogger().info("New " + name + " file created");
                 } catch (final IOException e) {
                     e.printStackTrace();
@@ -60,7 +91,52 @@ public class SimpleYamlConfiguration extends YamlConfiguration {
 
     }
 
+    /**
+     * Copy all values of this config to a new, unconnected config. <br>
+     * Must be called while holding the lock of this config.
+     *
+     * @return a copy of this config
+     */
+    private YamlConfiguration createSnapshot() {
+        final YamlConfiguration snapshot = new YamlConfiguration();
+
+        snapshot.options().header(options().header());
+        snapshot.options().copyHeader(options().copyHeader());
+
+        for (final Entry<String, Object> entry : getValues(true).entrySet()) {
+            final Object value = entry.getValue();
+
+            if (value instanceof ConfigurationSection) {
+                // Sections are created by setting their values, only empty ones need to be created.
+                if (((ConfigurationSection) value).getKeys(false).isEmpty()) {
+                    snapshot.createSection(entry.getKey());
+                }
+            } else if (value instanceof List) {
+                // Lists can still be changed by others, so copy them.
+                snapshot.set(entry.getKey(), new ArrayList<Object>(
+                        (List<?>) value));
+            } else {
+                snapshot.set(entry.getKey(), value);
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Check whether this config has changed since it was last saved or loaded.
+     *
+     * @return true if there are unsaved changes; false otherwise.
+     */
+    public boolean isDirty() {
+        synchronized (this) {
+            return modifications != savedModifications;
+        }
+    }
+
     public void load() {
+        restoreBackup(plugin, file);
+
         try {
             this.load(file);
         } catch (final FileNotFoundException e) {
@@ -77,13 +153,115 @@ public class SimpleYamlConfiguration extends YamlConfiguration {
         save();
     }
 
+    @Override
+    public synchronized void loadFromString(final String contents)
+            throws InvalidConfigurationException {
+        super.loadFromString(contents);
+
+        // What we just loaded is what is on disk.
+        savedModifications = modifications;
+    }
+
+    /**
+     * Restore the backup of a file when a save was interrupted after the file was moved away,
+     * but before the new file was put in its place.
+     *
+     * @param plugin Plugin to log with
+     * @param file File that was saved
+     */
+    private static void restoreBackup(final JavaPlugin plugin, final File file) {
+        final File backupFile = getBackupFile(file);
+
+        if (!file.exists() && backupFile.exists()) {
+            if (backupFile.renameTo(file)) {
+                plugin.getLogger().warning(
+                        "Restored " + file.getName() + " from "
+                                + backupFile.getName()
+                                + ", the last save was interrupted.");
+            }
+        }
+    }
+
+    private static File getBackupFile(final File file) {
+        return new File(file.getParentFile(), file.getName() + ".bak");
+    }
+
+    /**
+     * Save this config to its file, but only when something has changed. <br>
+     * Changes are only blocked while a copy of the config is made; writing happens without
+     * blocking other threads.
+     */
     public void save() {
+        synchronized (saveLock) {
+            final YamlConfiguration snapshot;
+            final long snapshotModifications;
+
+            synchronized (this) {
+                snapshotModifications = modifications;
+
+                // Nothing changed, so there is nothing to write.
+                if (snapshotModifications == savedModifications && file.exists()) {
+                    return;
+                }
+
+                snapshot = createSnapshot();
+            }
+
+            if (writeSafely(plugin, snapshot, file)) {
+                savedModifications = snapshotModifications;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void set(final String path, final Object value) {
+        super.set(path, value);
+
+        modifications++;
+    }
+
+    /**
+     * Write a config to a temporary file and move it over the real file. <br>
+     * A file written this way should be loaded with a {@link SimpleYamlConfiguration}, so an
+     * interrupted save is recovered.
+     *
+     * @param plugin Plugin to log with
+     * @param config Config to write, must not be changed while it is written
+     * @param file File to replace
+     * @return true if the file was written; false otherwise.
+     */
+    public static boolean writeSafely(final JavaPlugin plugin,
+            final YamlConfiguration config, final File file) {
+        final File tempFile = new File(file.getParentFile(), file.getName()
+                + ".tmp");
+
         try {
-            this.save(file);
-        } catch (final ConcurrentModificationException e) {
-            save();
+            config.save(tempFile);
         } catch (final IOException e) {
-            e.printStackTrace();
+            plugin.getLogger().log(Level.SEVERE,
+                    "Could not save " + file.getName() + "!", e);
+            return false;
+        }
+
+        // File.renameTo() does not replace existing files on every platform.
+        // In that case the old file is kept as backup until the new one is in place.
+        if (!tempFile.renameTo(file)) {
+            final File backupFile = getBackupFile(file);
+
+            // A backup next to the real file is left over from an earlier save.
+            backupFile.delete();
+
+            if (!file.renameTo(backupFile) || !tempFile.renameTo(file)) {
+                plugin.getLogger().severe(
+                        "Could not replace " + file.getName() + " with "
+                                + tempFile.getName() + "!");
+                restoreBackup(plugin, file);
+                return false;
+            }
+
+            backupFile.delete();
         }
+
+        return true;
     }
 }
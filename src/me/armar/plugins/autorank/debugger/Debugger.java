@@ -123,6 +123,32 @@ public class Debugger {
             out.write("");
             out.newLine();
 
+            out.write("Players waiting to be checked: "
+                    + plugin.getPlayerChecker().getPipeline().getQueueSize());
+            out.newLine();
+            out.write("");
+            out.newLine();
+
+            if (plugin.getPlaytimes().getStaggeredUpdate() != null) {
+                out.write("Staggered interval check: "
+                        + plugin.getPlaytimes().getStaggeredUpdate()
+                        .getStatus());
+                out.newLine();
+                out.write("");
+                out.newLine();
+            }
+
+            if (plugin.getMySQLWrapper().isMySQLEnabled()) {
+                out.write("Global time cache: "
+                        + plugin.getMySQLWrapper().getCacheStatus());
+                out.newLine();
+                out.write("Global time sync: "
+                        + plugin.getMySQLWrapper().getSyncStatus());
+                out.newLine();
+                out.write("");
+                out.newLine();
+            }
+
             out.write("Java version: " + System.getProperty("java.version"));
             out.newLine();
             out.write("");
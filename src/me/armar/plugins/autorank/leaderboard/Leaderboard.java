@@ -3,16 +3,20 @@ package me.armar.plugins.autorank.leaderboard;
 import java.util.Map.Entry;
 import java.util.*;
 import me.armar.plugins.autorank.Autorank;
-import me.armar.plugins.autorank.hooks.vaultapi.VaultHandler;
 import me.armar.plugins.autorank.util.AutorankTools;
+import me.armar.plugins.autorank.util.LayoutTemplate;
 import me.armar.plugins.autorank.util.uuid.UUIDManager;
 import org.bukkit.ChatColor;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
 
 /**
- * Leaderboard stores how when the last update was and if someone wants to<br>
- * display it and it it outdated (set to 10 minutes) it will generate a new leaderboard.<br>
+ * Leaderboard generates all pages of the leaderboard in the background, every few minutes (set
+ * to 10 minutes), and replaces the old pages at once when it is done.<br>
+ * Showing a page only reads what was generated last, so nobody ever waits for the leaderboard to
+ * be generated. The local times are kept sorted by {@link LeaderboardIndex}, so only the top
+ * players are read. <br>
+ * When the global leaderboard is used, only the top players are read from the MySQL database
+ * instead of ranking the time of this server.
  * <p>
  * Date created: 21:03:23 15 mrt. 2014
  *
@@ -21,214 +25,365 @@ import org.bukkit.command.CommandSender;
  */
 public class Leaderboard {
 
-    private static Map<UUID, Integer> sortByComparator(
-            final Map<UUID, Integer> unsortMap, final boolean order) {
+    // Placeholders of the layout: player, rank, total minutes, total hours, days, hours, minutes
+    private static final String[] PLACEHOLDERS = { "&p", "&r", "&tm", "&th",
+            "&d", "&h", "&m" };
 
-        final List<Entry<UUID, Integer>> list = new LinkedList<Entry<UUID, Integer>>(
-                unsortMap.entrySet());
-
-        // Sorting the list based on values
-        Collections.sort(list, new Comparator<Entry<UUID, Integer>>() {
-            @Override
-            public int compare(final Entry<UUID, Integer> o1,
-                    final Entry<UUID, Integer> o2) {
-                if (order) {
-                    return o1.getValue().compareTo(o2.getValue());
-                } else {
-                    return o2.getValue().compareTo(o1.getValue());
-
-                }
-            }
-        });
-
-        // Maintaining insertion order with the help of LinkedList
-        final Map<UUID, Integer> sortedMap = new LinkedHashMap<UUID, Integer>();
-        for (final Entry<UUID, Integer> entry : list) {
-            sortedMap.put(entry.getKey(), entry.getValue());
-        }
-
-        return sortedMap;
-    }
-
-    private long lastUpdatedTime;
-    private String layout = "&6&r | &b&p - &7&d day(s), &h hour(s) and &m minute(s).";
+    private final LayoutTemplate layout;
     private int leaderboardLength = 10;
-    private String[] messages;
+    private int leaderboardPages = 5;
+
+    // Every page of the leaderboard, rendered in the background and replaced as a whole.
+    private volatile String[][] pages;
     private final Autorank plugin;
+    private final LeaderboardExemptions exemptions;
 
-    private final double validTime = 10D; // In minutes
+    private int validTime = 10; // In minutes
 
     public Leaderboard(final Autorank plugin) {
         this.plugin = plugin;
+        this.exemptions = new LeaderboardExemptions(plugin);
 
         leaderboardLength = plugin.getConfigHandler().getLeaderboardLength();
-        layout = plugin.getConfigHandler().getLeaderboardLayout();
+        leaderboardPages = plugin.getConfigHandler().getLeaderboardPages();
+        layout = LayoutTemplate.compile(plugin.getConfigHandler()
+                .getLeaderboardLayout(), PLACEHOLDERS);
+        validTime = Math.max(1, plugin.getConfigHandler()
+                .getLeaderboardCacheTime());
+
+        final long refreshTicks = validTime * 1200L;
 
         // Run async because it uses UUID lookup
+        // Players are only ever shown what was generated here, they never wait for it.
         plugin.getServer().getScheduler()
-                .runTaskAsynchronously(plugin, new Runnable() {
+                .runTaskTimerAsynchronously(plugin, new Runnable() {
                     @Override
                     public void run() {
                         updateLeaderboard();
                     }
-                });
+                }, 0L, refreshTicks);
     }
 
-    private Map<UUID, Integer> getSortedPlaytimes() {
-
-        final List<UUID> uuids = plugin.getPlaytimes().getUUIDKeys();
+    /**
+     * Get the players with the highest global time, read from the MySQL database. Exempted players
+     * are left out.
+     *
+     * @return global time per player, sorted from high to low, or null if the database could not
+     *         be reached.
+     */
+    private Map<UUID, Integer> getGlobalPlaytimes() {
+        final int size = getSize();
+
+        // Ask for more players than needed, some of them might be exempted.
+        int amount = size * 2;
+
+        while (true) {
+            final Map<UUID, Integer> top = plugin.getMySQLWrapper()
+                    .getTopDatabaseTimes(amount);
+
+            if (top == null) {
+                return null;
+            }
 
-        final HashMap<UUID, Integer> times = new HashMap<UUID, Integer>();
+            final Map<UUID, Integer> times = new LinkedHashMap<UUID, Integer>();
 
-        //String firstWorld = plugin.getServer().getWorlds().get(0).getName();
-        // Sometimes Vault doesn't return the proper permissions plugin.
-        boolean isVaultBeingNaughty = false;
+            for (final Entry<UUID, Integer> entry : top.entrySet()) {
+                if (!isExempted(entry.getKey())) {
+                    times.put(entry.getKey(), entry.getValue());
+                }
+            }
 
-        // Fill unsorted lists
-        for (int i = 0; i < uuids.size(); i++) {
+            // Enough players, or there are no more players.
+            if (times.size() >= size || top.size() < amount) {
+                return times;
+            }
 
-            OfflinePlayer offlinePlayer = plugin.getServer().getOfflinePlayer(uuids.get(i));
+            amount *= 2;
+        }
+    }
 
-            // If offline player is found, check their permission
-            if (offlinePlayer.getName() != null) {
-                // Do not show this player, because he is exempted.
-                // Check if player is exempted.
+    /**
+     * Count the exempted players that are ranked above a rank of the index. They are not shown
+     * on the pages, so the ranks below them move up.
+     */
+    private int countExemptedAbove(final LeaderboardIndex index, final int rank) {
+        int count = 0;
 
-                if (VaultHandler.permission == null) {
-                    isVaultBeingNaughty = true;
-                    continue;
-                }
+        for (final UUID uuid : exemptions.getExempted()) {
+            final int exemptedRank = index.getRank(uuid);
 
-                if (VaultHandler.permission.playerHas(null, offlinePlayer,
-                        "autorank.leaderboard.exempt")) {
-                    continue;
-                }
+            if (exemptedRank >= 0 && exemptedRank < rank) {
+                count++;
             }
-
-            // We should use getTimeOfPlayer(), but that requires a lot of rewrites, so I'll leave it at the moment.
-            times.put(uuids.get(i),
-                    plugin.getPlaytimes().getLocalTime(uuids.get(i)));
         }
 
-        if (isVaultBeingNaughty) {
-            plugin.getLogger().severe("Vault didn't tell what permissions plugin is being used! Autorank's leaderboard might not work properly!");
-        }
+        return count;
+    }
 
-        // Sort all values
-        final Map<UUID, Integer> sortedMap = sortByComparator(times, false);
+    /**
+     * Get the amount of players that are shown on all pages together.
+     */
+    private int getSize() {
+        return leaderboardLength * leaderboardPages;
+    }
 
-        return sortedMap;
+    /**
+     * Check whether a player should not be shown on the leaderboard.
+     */
+    private boolean isExempted(final UUID uuid) {
+        return exemptions.isExempted(uuid);
     }
 
-    public void sendLeaderboard(final CommandSender sender) {
-        if (shouldUpdateLeaderboard()) {
-            // Update leaderboard because it is not valid anymore.
-            // Run async because it uses UUID lookup
-            plugin.getServer().getScheduler()
-                    .runTaskAsynchronously(plugin, new Runnable() {
-                        @Override
-                        public void run() {
-                            updateLeaderboard();
+    public LeaderboardExemptions getExemptions() {
+        return exemptions;
+    }
+
+    /**
+     * Format a line of the leaderboard with the layout of the config.
+     */
+    private String formatLine(final int rank, final String name, final int time) {
+        return layout.render(name, rank, time, time / 60, time / 1440,
+                (time % 1440) / 60, time % 60);
+    }
+
+    /**
+     * Get the players with the highest local time, in the order of the leaderboard. Exempted
+     * players are left out, using {@link LeaderboardExemptions}. <br>
+     * Only the top of the {@link LeaderboardIndex} is read, nothing has to be sorted.
+     *
+     * @return local time per player, sorted from high to low
+     */
+    private Map<UUID, Integer> getSortedPlaytimes() {
+        final Map<UUID, Integer> times = new LinkedHashMap<UUID, Integer>();
+
+        plugin.getPlaytimes().getLeaderboardIndex()
+                .forEach(1, new LeaderboardIndex.Visitor() {
 
-                            // Send them afterwards, not at the same time.
-                            for (final String msg : messages) {
-                                AutorankTools.sendColoredMessage(sender, msg);
-                            }
+                    @Override
+                    public boolean visit(final UUID uuid, final int time) {
+                        // Do not show this player, because he is exempted.
+                        if (!isExempted(uuid)) {
+                            times.put(uuid, time);
                         }
-                    });
-        } else {
-            // send them instantly
-            for (final String msg : messages) {
-                AutorankTools.sendColoredMessage(sender, msg);
-            }
-        }
+
+                        return times.size() < getSize();
+                    }
+                });
+
+        return times;
     }
 
-    public void broadcastLeaderboard() {
-        if (shouldUpdateLeaderboard()) {
-            // Update leaderboard because it is not valid anymore.
-            // Run async because it uses UUID lookup
+    /**
+     * Send the rank of a player on the leaderboard (/ar leaderboard me). <br>
+     * The rank of a local time is looked up in the {@link LeaderboardIndex}; the rank of a global
+     * time is counted by the database. Exempted players are left out, like on the pages.
+     *
+     * @param sender Sender to send it to
+     * @param uuid UUID of the player
+     * @param name Name of the player
+     */
+    public void sendPlayerRank(final CommandSender sender, final UUID uuid,
+            final String name) {
+        if (isExempted(uuid)) {
+            AutorankTools.sendColoredMessage(sender, "&c" + name
+                    + " is exempted from the leaderboard.");
+            return;
+        }
+
+        if (plugin.getConfigHandler().useGlobalLeaderboard()
+                && plugin.getMySQLWrapper().isMySQLEnabled()) {
+            // Run async because it uses the database
             plugin.getServer().getScheduler()
                     .runTaskAsynchronously(plugin, new Runnable() {
+
                         @Override
                         public void run() {
-                            updateLeaderboard();
-
-                            // Send them afterwards, not at the same time.
-                            for (final String msg : messages) {
-                                plugin.getServer().broadcastMessage(
-                                        ChatColor.translateAlternateColorCodes(
-                                                '&', msg));
-                            }
+                            final int time = plugin.getMySQLWrapper()
+                                    .getDatabaseTime(uuid);
+                            final int rank = time < 0 ? -1 : plugin
+                                    .getMySQLWrapper().getDatabaseRank(time,
+                                            exemptions.getExempted());
+
+                            sendPlayerRank(sender, name, rank, time);
                         }
                     });
-        } else {
-            // send them instantly
-            for (final String msg : messages) {
-                plugin.getServer().broadcastMessage(
-                        ChatColor.translateAlternateColorCodes('&', msg));
-            }
+            return;
+        }
+
+        final LeaderboardIndex index = plugin.getPlaytimes()
+                .getLeaderboardIndex();
+        final int rank;
+        final int time;
+
+        // Nothing may change between the ranks that are compared.
+        synchronized (index) {
+            final int indexRank = index.getRank(uuid);
+
+            rank = indexRank < 0 ? -1 : indexRank
+                    - countExemptedAbove(index, indexRank);
+            time = index.getTime(uuid);
         }
+
+        sendPlayerRank(sender, name, rank, time);
     }
 
-    private boolean shouldUpdateLeaderboard() {
-        if (System.currentTimeMillis() - lastUpdatedTime > (60000 * validTime)
-                || messages == null) {
-            return true;
-        } else {
-            return false;
+    private void sendPlayerRank(final CommandSender sender, final String name,
+            final int rank, final int time) {
+        if (rank < 0) {
+            AutorankTools.sendColoredMessage(sender, "&c" + name
+                    + " is not on the leaderboard yet.");
+            return;
         }
+
+        AutorankTools.sendColoredMessage(sender, formatLine(rank, name, time));
     }
 
-    public void updateLeaderboard() {
+    /**
+     * Send a page of the leaderboard. The page is taken from what was generated last, so this never
+     * waits for the leaderboard to be generated.
+     *
+     * @param sender Sender to send it to
+     * @param page Page to send, starting at 1
+     */
+    public void sendLeaderboard(final CommandSender sender, final int page) {
+        final String[] messages = getPage(sender, page);
+
+        if (messages == null) {
+            return;
+        }
+
+        for (final String msg : messages) {
+            AutorankTools.sendColoredMessage(sender, msg);
+        }
+    }
+
+    /**
+     * Broadcast a page of the leaderboard to all players. The page is taken from what was
+     * generated last.
+     *
+     * @param sender Sender that wants to broadcast it
+     * @param page Page to broadcast, starting at 1
+     */
+    public void broadcastLeaderboard(final CommandSender sender,
+            final int page) {
+        final String[] messages = getPage(sender, page);
+
+        if (messages == null) {
+            return;
+        }
+
+        for (final String msg : messages) {
+            plugin.getServer().broadcastMessage(
+                    ChatColor.translateAlternateColorCodes('&', msg));
+        }
+    }
+
+    /**
+     * Get the lines of a page, or tell the sender why it cannot be shown.
+     */
+    private String[] getPage(final CommandSender sender, final int page) {
+        final String[][] current = pages;
+
+        if (current == null) {
+            AutorankTools.sendColoredMessage(sender,
+                    "&cThe leaderboard is being generated, try again in a moment.");
+            return null;
+        }
+
+        if (page < 1 || page > current.length) {
+            AutorankTools.sendColoredMessage(sender, "&cThere "
+                    + (current.length == 1 ? "is only 1 page." : "are only "
+                            + current.length + " pages."));
+            return null;
+        }
+
+        return current[page - 1];
+    }
+
+    /**
+     * Generate all pages of the leaderboard again, and replace the old pages when they are done.
+     * <br>
+     * Run this ASYNC, because it looks up player names (and uses the database for the global
+     * leaderboard).
+     */
+    public synchronized void updateLeaderboard() {
         plugin.debugMessage("Updating leaderboard...");
 
-        lastUpdatedTime = System.currentTimeMillis();
+        Map<UUID, Integer> sortedPlaytimes = null;
 
-        final Map<UUID, Integer> sortedPlaytimes = getSortedPlaytimes();
-        final Iterator<Entry<UUID, Integer>> itr = sortedPlaytimes.entrySet()
-                .iterator();
+        if (plugin.getConfigHandler().useGlobalLeaderboard()
+                && plugin.getMySQLWrapper().isMySQLEnabled()) {
+            sortedPlaytimes = getGlobalPlaytimes();
+
+            if (sortedPlaytimes == null) {
+                // Keep showing the old leaderboard until the database is back.
+                if (pages != null) {
+                    plugin.debugMessage("Could not update global leaderboard, database is unreachable.");
+                    return;
+                }
+
+                sortedPlaytimes = getSortedPlaytimes();
+            }
+        } else {
+            sortedPlaytimes = getSortedPlaytimes();
+        }
 
         plugin.debugMessage("Size leaderboard: " + sortedPlaytimes.size());
 
-        final List<String> stringList = new ArrayList<String>();
-        stringList.add("&a-------- Autorank Leaderboard --------");
+        // Grab the names of the top players in one go, so it doesn't load all player names ever.
+        final List<UUID> top = new ArrayList<UUID>();
+
+        for (final UUID uuid : sortedPlaytimes.keySet()) {
+            if (top.size() >= getSize()) {
+                break;
+            }
+
+            top.add(uuid);
+        }
+
+        final Map<UUID, String> names = UUIDManager.getPlayers(top);
 
-        for (int i = 0; i < leaderboardLength && itr.hasNext(); i++) {
-            final Entry<UUID, Integer> entry = itr.next();
+        final Iterator<Entry<UUID, Integer>> itr = sortedPlaytimes.entrySet()
+                .iterator();
 
-            final UUID uuid = entry.getKey();
+        // Always at least one page, even when it is empty.
+        final int pageCount = Math.max(1,
+                (top.size() + leaderboardLength - 1) / leaderboardLength);
+        final String[][] newPages = new String[pageCount][];
 
-            // Grab playername from here so it doesn't load all player names ever.
-            final String name = UUIDManager.getPlayerFromUUID(uuid);
+        int rank = 0;
 
-            if (name == null) {
-                continue;
-            }
+        for (int page = 0; page < pageCount; page++) {
+            final List<String> stringList = new ArrayList<String>();
 
-            Integer time = entry.getValue().intValue();
+            if (pageCount == 1) {
+                stringList.add("&a-------- Autorank Leaderboard --------");
+            } else {
+                stringList.add("&a----- Autorank Leaderboard (" + (page + 1)
+                        + "/" + pageCount + ") -----");
+            }
 
-            String message = layout.replaceAll("&p", name);
+            for (int i = 0; i < leaderboardLength && itr.hasNext(); i++) {
+                final Entry<UUID, Integer> entry = itr.next();
+                rank++;
 
-            message = message.replaceAll("&r", Integer.toString(i + 1));
-            message = message.replaceAll("&tm", Integer.toString(time));
-            message = message.replaceAll("&th", Integer.toString(time / 60));
-            message = message.replaceAll("&d", Integer.toString(time / 1440));
-            time = time - ((time / 1440) * 1440);
-            message = message.replaceAll("&h", Integer.toString(time / 60));
-            time = time - ((time / 60) * 60);
-            message = message.replaceAll("&m", Integer.toString(time));
-            message = ChatColor.translateAlternateColorCodes('&', message);
+                final String name = names == null ? null : names.get(entry
+                        .getKey());
 
-            stringList.add(message);
+                if (name == null) {
+                    continue;
+                }
 
-        }
+                stringList.add(formatLine(rank, name, entry.getValue()));
+            }
 
-        stringList.add("&a------------------------------------");
+            stringList.add("&a------------------------------------");
 
-        messages = stringList.toArray(new String[stringList.size()]);
+            newPages[page] = stringList.toArray(new String[stringList.size()]);
+        }
 
-        //System.out.print("Took: " + (System.currentTimeMillis() - lastUpdatedTime)  + " ms.");
+        // Replace all pages at once, so nobody sees half of the old and half of the new leaderboard.
+        pages = newPages;
     }
 
 }
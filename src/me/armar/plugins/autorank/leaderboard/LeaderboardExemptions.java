@@ -0,0 +1,183 @@
+package me.armar.plugins.autorank.leaderboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import me.armar.plugins.autorank.Autorank;
+import me.armar.plugins.autorank.data.SimpleYamlConfiguration;
+import me.armar.plugins.autorank.hooks.vaultapi.VaultHandler;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+/**
+ * Remembers which players are exempted from the leaderboard (autorank.leaderboard.exempt), so
+ * building the leaderboard never has to ask the permissions plugin about offline players. Some
+ * permissions plugins load the data of an offline player from disk or a database for every check.
+ * <br>
+ * All players are checked once (in the background), after that only online players are checked:
+ * when they join or quit and every few minutes while they are online, to notice permission
+ * changes. The exempted players are stored in LeaderboardExemptions.yml, so the full check is only
+ * done again when that file is removed.
+ */
+public class LeaderboardExemptions {
+
+    public static final String PERMISSION = "autorank.leaderboard.exempt";
+
+    /**
+     * Time (in ticks) between two checks of the online players.
+     */
+    public static final long CHECK_TICKS = 6000L;
+
+    private final Autorank plugin;
+
+    private final SimpleYamlConfiguration config;
+
+    private final Set<UUID> exempted = Collections
+            .newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+
+    public LeaderboardExemptions(final Autorank plugin) {
+        this.plugin = plugin;
+
+        final LinkedHashMap<String, Object> defaults = new LinkedHashMap<String, Object>();
+        defaults.put("scanned", false);
+        defaults.put("exempted", new ArrayList<String>());
+
+        config = new SimpleYamlConfiguration(plugin,
+                "LeaderboardExemptions.yml", defaults,
+                "Leaderboard exemptions");
+
+        for (final String value : config.getStringList("exempted")) {
+            try {
+                exempted.add(UUID.fromString(value));
+            } catch (final IllegalArgumentException e) {
+                // Not a UUID, ignore it.
+            }
+        }
+
+        if (!config.getBoolean("scanned", false)) {
+            // Check every player once, in the background.
+            plugin.getServer().getScheduler()
+                    .runTaskAsynchronously(plugin, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            scan();
+                        }
+                    });
+        }
+
+        // Notice permission changes of online players.
+        plugin.getServer().getScheduler()
+                .runTaskTimer(plugin, new Runnable() {
+
+                    @SuppressWarnings("deprecation")
+                    @Override
+                    public void run() {
+                        for (final Player player : plugin.getServer()
+                                .getOnlinePlayers()) {
+                            update(player);
+                        }
+
+                        save();
+                    }
+                }, CHECK_TICKS, CHECK_TICKS);
+    }
+
+    /**
+     * Get all exempted players. Only looks at what is stored.
+     *
+     * @return a view of the exempted players
+     */
+    public Set<UUID> getExempted() {
+        return Collections.unmodifiableSet(exempted);
+    }
+
+    /**
+     * Check whether a player is exempted from the leaderboard. Only looks at what is stored, the
+     * permissions plugin is not used.
+     *
+     * @param uuid UUID of the player
+     * @return true if the player is exempted; false otherwise.
+     */
+    public boolean isExempted(final UUID uuid) {
+        return exempted.contains(uuid);
+    }
+
+    /**
+     * Save the exempted players, if anything has changed.
+     */
+    public void save() {
+        config.save();
+    }
+
+    /**
+     * Check every player that has a local time with the permissions plugin. This is slow, so it is
+     * only done once.
+     */
+    private void scan() {
+        if (VaultHandler.permission == null) {
+            plugin.getLogger().warning(
+                    "Vault didn't tell what permissions plugin is being used! Exempted players will only be noticed when they are online.");
+            return;
+        }
+
+        plugin.getLogger().info(
+                "Checking which players are exempted from the leaderboard...");
+
+        final List<UUID> uuids = plugin.getPlaytimes().getUUIDKeys();
+
+        for (final UUID uuid : uuids) {
+            final OfflinePlayer offlinePlayer = plugin.getServer()
+                    .getOfflinePlayer(uuid);
+
+            if (offlinePlayer.getName() == null) {
+                continue;
+            }
+
+            setExempted(uuid, VaultHandler.permission.playerHas(null,
+                    offlinePlayer, PERMISSION));
+        }
+
+        config.set("scanned", true);
+        save();
+
+        plugin.getLogger().info(
+                "Checked " + uuids.size() + " players, " + exempted.size()
+                        + " are exempted from the leaderboard.");
+
+        // Leave out the players that were just found.
+        if (plugin.getLeaderboard() != null) {
+            plugin.getLeaderboard().updateLeaderboard();
+        }
+    }
+
+    private synchronized void setExempted(final UUID uuid, final boolean exempt) {
+        final boolean changed = exempt ? exempted.add(uuid) : exempted
+                .remove(uuid);
+
+        if (!changed) {
+            return;
+        }
+
+        final List<String> values = new ArrayList<String>();
+
+        for (final UUID value : exempted) {
+            values.add(value.toString());
+        }
+
+        config.set("exempted", values);
+    }
+
+    /**
+     * Check whether an online player has the exempt permission, and store the result.
+     *
+     * @param player Player to check
+     */
+    public void update(final Player player) {
+        setExempted(player.getUniqueId(), player.hasPermission(PERMISSION));
+    }
+}
@@ -0,0 +1,374 @@
+package me.armar.plugins.autorank.leaderboard;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import me.armar.plugins.autorank.playtimes.PlaytimesTable;
+
+/**
+ * Keeps all local times sorted from high to low, so the leaderboard never has to sort all players.
+ * <br>
+ * {@link me.armar.plugins.autorank.playtimes.Playtimes} updates it whenever the time of a player
+ * changes. It is an order-statistic tree (a treap where every node knows the size of its subtree),
+ * so updating a player, getting the rank of a player and finding the player at a rank all take
+ * O(log n). Getting the top <i>n</i> players takes O(log n + n).
+ * <p>
+ * The nodes are stored in parallel arrays of primitives and players are mapped to their node by a
+ * {@link PlaytimesTable}, so no objects are created per player.
+ */
+public class LeaderboardIndex {
+
+    /**
+     * Called for the players in the order of the leaderboard.
+     */
+    public interface Visitor {
+
+        /**
+         * Visit a player.
+         *
+         * @param uuid UUID of the player
+         * @param time Time of the player
+         * @return true to visit the next player; false to stop.
+         */
+        public boolean visit(UUID uuid, int time);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Node 0 is the empty tree.
+    private static final int NIL = 0;
+
+    private final Random random = new Random();
+
+    // Nodes, indexed by node number
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private int[] times;
+    private int[] priorities;
+    private int[] left;
+    private int[] right;
+    private int[] sizes;
+
+    // Node of every player
+    private final PlaytimesTable nodes = new PlaytimesTable();
+
+    private int root = NIL;
+    // Next node that was never used
+    private int nextNode = 1;
+    // Removed nodes, linked through left
+    private int freeNodes = NIL;
+
+    // Result of split()
+    private int splitBefore, splitAfter;
+
+    public LeaderboardIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(final int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        times = new int[capacity];
+        priorities = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        sizes = new int[capacity];
+    }
+
+    /**
+     * Remove all players.
+     */
+    public synchronized void clear() {
+        allocate(INITIAL_CAPACITY);
+        nodes.clear();
+
+        root = NIL;
+        nextNode = 1;
+        freeNodes = NIL;
+    }
+
+    /**
+     * Order of the leaderboard: highest time first, ties are ordered by UUID so every player has
+     * exactly one position.
+     */
+    private int compare(final int time, final long most, final long least,
+            final int node) {
+        if (time != times[node]) {
+            return time > times[node] ? -1 : 1;
+        }
+
+        // Same order as UUID.compareTo()
+        if (most != mostSigBits[node]) {
+            return most < mostSigBits[node] ? -1 : 1;
+        }
+
+        if (least != leastSigBits[node]) {
+            return least < leastSigBits[node] ? -1 : 1;
+        }
+
+        return 0;
+    }
+
+    private int createNode(final long most, final long least, final int time) {
+        final int node;
+
+        if (freeNodes != NIL) {
+            node = freeNodes;
+            freeNodes = left[node];
+        } else {
+            if (nextNode == times.length) {
+                grow();
+            }
+
+            node = nextNode++;
+        }
+
+        mostSigBits[node] = most;
+        leastSigBits[node] = least;
+        times[node] = time;
+        priorities[node] = random.nextInt();
+        left[node] = NIL;
+        right[node] = NIL;
+        sizes[node] = 1;
+
+        return node;
+    }
+
+    /**
+     * Call the visitor for players in the order of the leaderboard, starting at the given rank.
+     *
+     * @param rank Rank to start at (1 is the highest time)
+     * @param visitor Visitor to call
+     */
+    public synchronized void forEach(final int rank, final Visitor visitor) {
+        visit(root, Math.max(1, rank) - 1, visitor);
+    }
+
+    /**
+     * Get the rank of a player.
+     *
+     * @param uuid UUID of the player
+     * @return rank of the player (1 is the highest time), or -1 if the player is not stored.
+     */
+    public synchronized int getRank(final UUID uuid) {
+        final long most = uuid.getMostSignificantBits();
+        final long least = uuid.getLeastSignificantBits();
+        final int player = nodes.get(most, least, NIL);
+
+        if (player == NIL) {
+            return -1;
+        }
+
+        final int time = times[player];
+
+        // Count all players that come before this player.
+        int before = 0;
+        int node = root;
+
+        while (node != NIL) {
+            final int comparison = compare(time, most, least, node);
+
+            if (comparison == 0) {
+                return before + sizes[left[node]] + 1;
+            }
+
+            if (comparison < 0) {
+                node = left[node];
+            } else {
+                before += sizes[left[node]] + 1;
+                node = right[node];
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the time of a player, as it is stored in the index.
+     *
+     * @param uuid UUID of the player
+     * @return time of the player, or -1 if the player is not stored.
+     */
+    public synchronized int getTime(final UUID uuid) {
+        final int node = nodes.get(uuid, NIL);
+
+        return node == NIL ? -1 : times[node];
+    }
+
+    private void grow() {
+        final int capacity = times.length * 2;
+
+        mostSigBits = Arrays.copyOf(mostSigBits, capacity);
+        leastSigBits = Arrays.copyOf(leastSigBits, capacity);
+        times = Arrays.copyOf(times, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+    }
+
+    private int merge(final int before, final int after) {
+        if (before == NIL) {
+            return after;
+        }
+
+        if (after == NIL) {
+            return before;
+        }
+
+        if (priorities[before] > priorities[after]) {
+            right[before] = merge(right[before], after);
+            update(before);
+            return before;
+        }
+
+        left[after] = merge(before, left[after]);
+        update(after);
+        return after;
+    }
+
+    /**
+     * Remove a player.
+     *
+     * @param uuid UUID of the player
+     */
+    public synchronized void remove(final UUID uuid) {
+        remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    private void remove(final long most, final long least) {
+        final int node = nodes.get(most, least, NIL);
+
+        if (node == NIL) {
+            return;
+        }
+
+        nodes.remove(most, least);
+        root = removeNode(root, node);
+
+        left[node] = freeNodes;
+        freeNodes = node;
+    }
+
+    /**
+     * Remove a node from a subtree.
+     *
+     * @return the subtree without the node
+     */
+    private int removeNode(final int tree, final int node) {
+        if (tree == node) {
+            return merge(left[node], right[node]);
+        }
+
+        if (compare(times[node], mostSigBits[node], leastSigBits[node], tree) < 0) {
+            left[tree] = removeNode(left[tree], node);
+        } else {
+            right[tree] = removeNode(right[tree], node);
+        }
+
+        update(tree);
+        return tree;
+    }
+
+    /**
+     * Set the time of a player. The player is added when it is not stored yet.
+     *
+     * @param most Most significant bits of the UUID of the player
+     * @param least Least significant bits of the UUID of the player
+     * @param time New time of the player
+     */
+    public synchronized void set(final long most, final long least,
+            final int time) {
+        final int old = nodes.get(most, least, NIL);
+
+        if (old != NIL) {
+            if (times[old] == time) {
+                return;
+            }
+
+            remove(most, least);
+        }
+
+        final int node = createNode(most, least, time);
+
+        nodes.put(most, least, node);
+
+        split(root, time, most, least);
+        root = merge(merge(splitBefore, node), splitAfter);
+    }
+
+    /**
+     * Set the time of a player. The player is added when it is not stored yet.
+     *
+     * @param uuid UUID of the player
+     * @param time New time of the player
+     */
+    public synchronized void set(final UUID uuid, final int time) {
+        set(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), time);
+    }
+
+    /**
+     * Get the amount of players.
+     *
+     * @return amount of players stored
+     */
+    public synchronized int size() {
+        return sizes[root];
+    }
+
+    /**
+     * Split a tree in the nodes that come before the given key and the nodes that do not. The
+     * parts are left in splitBefore and splitAfter.
+     */
+    private void split(final int node, final int time, final long most,
+            final long least) {
+        if (node == NIL) {
+            splitBefore = NIL;
+            splitAfter = NIL;
+            return;
+        }
+
+        if (compare(time, most, least, node) > 0) {
+            // Node comes before the key
+            split(right[node], time, most, least);
+            right[node] = splitBefore;
+            update(node);
+            splitBefore = node;
+            return;
+        }
+
+        split(left[node], time, most, least);
+        left[node] = splitAfter;
+        update(node);
+        splitAfter = node;
+    }
+
+    private void update(final int node) {
+        sizes[node] = 1 + sizes[left[node]] + sizes[right[node]];
+    }
+
+    /**
+     * Visit the nodes of a subtree in order, skipping the first nodes.
+     *
+     * @return false if the visitor wants to stop.
+     */
+    private boolean visit(final int node, final int skip, final Visitor visitor) {
+        if (node == NIL) {
+            return true;
+        }
+
+        final int leftSize = sizes[left[node]];
+
+        if (skip < leftSize && !visit(left[node], skip, visitor)) {
+            return false;
+        }
+
+        if (skip <= leftSize
+                && !visitor.visit(new UUID(mostSigBits[node],
+                        leastSigBits[node]), times[node])) {
+            return false;
+        }
+
+        return visit(right[node], Math.max(0, skip - leftSize - 1), visitor);
+    }
+}
@@ -35,13 +35,19 @@ public class PlayerJoinListener implements Listener {
                     player.getUniqueId());
         }
 
+        // Start counting time of player (when time is added per session)
+        plugin.getPlaytimes().startSession(player);
+
+        // Permissions might have changed while the player was offline.
+        plugin.getLeaderboard().getExemptions().update(player);
+
         // Cannot check player at this moment. -> try at next automatic task
         if (plugin.getPlayerChecker() == null) {
             return;
         }
 
         // Perform check for player on login
-        plugin.getPlayerChecker().checkPlayer(player);
+        plugin.getPlayerChecker().queueCheck(player);
 
         // Player isn't allowed to see messages.
         if (player.hasPermission("autorank.noticeonupdate")) {
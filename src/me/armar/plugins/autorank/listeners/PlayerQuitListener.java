@@ -0,0 +1,28 @@
+package me.armar.plugins.autorank.listeners;
+
+import me.armar.plugins.autorank.Autorank;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * This listener will listen to players leaving and end their session, so the time they played is
+ * added.
+ */
+public class PlayerQuitListener implements Listener {
+
+    private final Autorank plugin;
+
+    public PlayerQuitListener(final Autorank instance) {
+        plugin = instance;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(final PlayerQuitEvent event) {
+        plugin.getPlaytimes().endSession(event.getPlayer());
+
+        // Remember whether the player is exempted from the leaderboard while he is offline.
+        plugin.getLeaderboard().getExemptions().update(event.getPlayer());
+    }
+}
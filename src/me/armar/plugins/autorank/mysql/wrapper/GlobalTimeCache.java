@@ -0,0 +1,160 @@
+package me.armar.plugins.autorank.mysql.wrapper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the global times that {@link MySQLWrapper} received from the database. <br>
+ * Entries expire 5 minutes after they were fetched and the least recently used entries are removed
+ * when the cache is full, so it does not keep growing on servers that run for a long time. Reads do
+ * not lock, so it can be used from any thread. <br>
+ * Adding time to an entry counts as a write for the underlying cache, so its own expiry would be
+ * pushed back every time. Whether an entry is out of date is therefore decided by the moment it was
+ * fetched, the cache's expiry only removes entries that are not used anymore.
+ */
+public class GlobalTimeCache {
+
+    private static class CachedTime {
+
+        private final int time;
+        // Moment (in ms) the time was fetched from the database.
+        private final long fetched;
+
+        private CachedTime(final int time, final long fetched) {
+            this.time = time;
+            this.fetched = fetched;
+        }
+
+        private boolean isExpired(final long now) {
+            return now - fetched >= EXPIRE_MINUTES * 60000L;
+        }
+    }
+
+    /**
+     * Time (in minutes) after which a cached time is out of date.
+     */
+    public static final int EXPIRE_MINUTES = 5;
+
+    /**
+     * Time (in minutes) after which a cached time of an online player is fetched again, before it
+     * expires.
+     */
+    public static final int REFRESH_MINUTES = 4;
+
+    private final Cache<UUID, CachedTime> cache;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maximumSize Maximum amount of players to cache
+     */
+    public GlobalTimeCache(final int maximumSize) {
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+                .expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES)
+                .recordStats().build();
+    }
+
+    /**
+     * Add time to the cached time of a player. Nothing happens when no time (or no valid time) is
+     * cached.
+     *
+     * @param uuid UUID of the player
+     * @param timeDifference Time to add
+     */
+    public void add(final UUID uuid, final int timeDifference) {
+        final ConcurrentMap<UUID, CachedTime> map = cache.asMap();
+
+        while (true) {
+            final CachedTime cached = map.get(uuid);
+
+            if (cached == null || cached.time < 0
+                    || cached.isExpired(System.currentTimeMillis())) {
+                return;
+            }
+
+            // Keep the moment it was fetched, get() looks at that to expire it.
+            if (map.replace(uuid, cached, new CachedTime(cached.time
+                    + timeDifference, cached.fetched))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the cached time of a player.
+     *
+     * @param uuid UUID of the player
+     * @return cached time (-1 if the player has no time in the database), or null if nothing is
+     *         cached or it is out of date.
+     */
+    public Integer get(final UUID uuid) {
+        final CachedTime cached = cache.getIfPresent(uuid);
+
+        if (cached == null) {
+            return null;
+        }
+
+        if (cached.isExpired(System.currentTimeMillis())) {
+            cache.asMap().remove(uuid, cached);
+            return null;
+        }
+
+        return cached.time;
+    }
+
+    /**
+     * Get a human readable overview of the cache.
+     *
+     * @return statistics of the cache
+     */
+    public String getStatus() {
+        final CacheStats stats = cache.stats();
+
+        return "size: " + cache.size() + ", hits: " + stats.hitCount()
+                + ", misses: " + stats.missCount() + ", hit rate: "
+                + Math.round(stats.hitRate() * 100) + "%, evictions: "
+                + stats.evictionCount();
+    }
+
+    /**
+     * Check whether the time of a player should be fetched again soon, so it never expires while
+     * the player is online.
+     *
+     * @param uuid UUID of the player
+     * @return true if the cached time is older than {@link #REFRESH_MINUTES} or nothing is cached.
+     */
+    public boolean needsRefresh(final UUID uuid) {
+        // Do not use getIfPresent(), refreshing should not count as a hit or miss.
+        final CachedTime cached = cache.asMap().get(uuid);
+
+        return cached == null
+                || System.currentTimeMillis() - cached.fetched >= REFRESH_MINUTES * 60000L;
+    }
+
+    /**
+     * Replace the time of a player that is cached by a time that was just read from the database.
+     * Nothing happens when the player is not cached.
+     *
+     * @param uuid UUID of the player
+     * @param time Time of the player
+     * @return true if the player was cached; false otherwise.
+     */
+    public boolean update(final UUID uuid, final int time) {
+        return cache.asMap().replace(uuid,
+                new CachedTime(time, System.currentTimeMillis())) != null;
+    }
+
+    /**
+     * Store the time of a player that was just fetched from the database.
+     *
+     * @param uuid UUID of the player
+     * @param time Time of the player, -1 if the player has no time in the database
+     */
+    public void put(final UUID uuid, final int time) {
+        cache.put(uuid, new CachedTime(time, System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,234 @@
+package me.armar.plugins.autorank.mysql.wrapper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import me.armar.plugins.autorank.data.SQLConnectionPool;
+import me.armar.plugins.autorank.data.SQLConnectionPool.PooledConnection;
+import me.armar.plugins.autorank.data.SQLDataStorage;
+import me.armar.plugins.autorank.util.uuid.UUIDFetcher;
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * Copies the global times of the old table (UUIDs as text) to the new table (UUIDs as 16 bytes,
+ * with an index on time). <br>
+ * Rows are copied in small chunks, ordered by UUID, while the server keeps running. Every chunk is
+ * copied in one transaction together with the position it got to, which is stored in the
+ * migration table. That way a chunk is never copied twice, even when the server stops halfway or
+ * multiple servers migrate at the same time. Time that was added to the new table before a row
+ * was copied is kept, the old time is added to it.
+ */
+public class GlobalTimeMigration extends BukkitRunnable {
+
+    /**
+     * Amount of rows copied per run.
+     */
+    public static final int CHUNK_SIZE = 500;
+
+    /**
+     * Time (in ticks) between two runs.
+     */
+    public static final long RUN_TICKS = 10L;
+
+    private final MySQLWrapper wrapper;
+    private final SQLDataStorage mysql;
+
+    private int copied = 0, skipped = 0;
+
+    public GlobalTimeMigration(final MySQLWrapper wrapper,
+            final SQLDataStorage mysql) {
+        this.wrapper = wrapper;
+        this.mysql = mysql;
+    }
+
+    /**
+     * Copy the next chunk of rows.
+     *
+     * @return true if there is nothing left to copy; false otherwise.
+     * @throws SQLException when something went wrong, nothing of this chunk is copied then.
+     */
+    private boolean copyChunk() throws SQLException {
+        final SQLConnectionPool pool = mysql.getPool();
+
+        if (pool == null) {
+            throw new SQLException("Not connected to the database");
+        }
+
+        final String legacyTable = wrapper.getLegacyTable();
+        final String timeTable = wrapper.getTimeTable();
+        final String migrationTable = wrapper.getMigrationTable();
+
+        final PooledConnection pooled = pool.borrow();
+        final Connection connection = pooled.getConnection();
+
+        boolean broken = true;
+
+        try {
+            connection.setAutoCommit(false);
+
+            // Lock the position, so other servers wait for this chunk.
+            final PreparedStatement lock = pooled
+                    .prepareStatement("SELECT last_uuid, done FROM "
+                            + migrationTable + " WHERE id = 1 FOR UPDATE");
+
+            String position = "";
+            boolean done = false;
+
+            final ResultSet positionResult = lock.executeQuery();
+
+            try {
+                if (positionResult.next()) {
+                    position = positionResult.getString(1);
+                    done = positionResult.getBoolean(2);
+                }
+            } finally {
+                positionResult.close();
+            }
+
+            if (done) {
+                connection.commit();
+                broken = false;
+                return true;
+            }
+
+            // Rows are locked, so a time that is set meanwhile waits for this chunk.
+            final PreparedStatement select = pooled
+                    .prepareStatement("SELECT uuid, time, modified FROM "
+                            + legacyTable
+                            + " WHERE uuid > ? ORDER BY uuid LIMIT "
+                            + CHUNK_SIZE + " FOR UPDATE");
+            select.setString(1, position);
+
+            final List<Object[]> rows = new ArrayList<Object[]>();
+            String last = null;
+
+            final ResultSet rs = select.executeQuery();
+
+            try {
+                while (rs.next()) {
+                    last = rs.getString(1);
+
+                    UUID uuid;
+
+                    try {
+                        uuid = UUID.fromString(last);
+                    } catch (final IllegalArgumentException e) {
+                        // Player name of a very old version, cannot be copied.
+                        skipped++;
+                        continue;
+                    }
+
+                    rows.add(new Object[] { UUIDFetcher.toBytes(uuid),
+                            rs.getInt(2), rs.getTimestamp(3) });
+                }
+            } finally {
+                rs.close();
+            }
+
+            if (last == null) {
+                // Nothing left
+                final PreparedStatement finish = pooled
+                        .prepareStatement("UPDATE " + migrationTable
+                                + " SET done = 1 WHERE id = 1");
+                finish.executeUpdate();
+
+                connection.commit();
+                broken = false;
+                return true;
+            }
+
+            if (!rows.isEmpty()) {
+                final StringBuilder insert = new StringBuilder("INSERT INTO ")
+                        .append(timeTable)
+                        .append(" (uuid, time, modified) VALUES ");
+
+                for (int i = 0; i < rows.size(); i++) {
+                    insert.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+                }
+
+                // Keep time that was added to the new table in the meantime.
+                insert.append(" ON DUPLICATE KEY UPDATE time = time + VALUES(time)");
+
+                // Not cached, the amount of rows differs per chunk.
+                final PreparedStatement copy = connection
+                        .prepareStatement(insert.toString());
+
+                try {
+                    for (int i = 0; i < rows.size(); i++) {
+                        final Object[] row = rows.get(i);
+
+                        copy.setBytes(i * 3 + 1, (byte[]) row[0]);
+                        copy.setInt(i * 3 + 2, (Integer) row[1]);
+                        copy.setTimestamp(i * 3 + 3, (Timestamp) row[2]);
+                    }
+
+                    copy.executeUpdate();
+                } finally {
+                    copy.close();
+                }
+            }
+
+            final PreparedStatement update = pooled.prepareStatement("UPDATE "
+                    + migrationTable + " SET last_uuid = ? WHERE id = 1");
+            update.setString(1, last);
+            update.executeUpdate();
+
+            connection.commit();
+
+            wrapper.setMigrationPosition(last);
+            copied += rows.size();
+            broken = false;
+
+            return false;
+        } finally {
+            if (broken) {
+                try {
+                    connection.rollback();
+                } catch (final SQLException ignored) {
+                }
+            }
+
+            try {
+                connection.setAutoCommit(true);
+            } catch (final SQLException e) {
+                broken = true;
+            }
+
+            pool.release(pooled, broken);
+        }
+    }
+
+    @Override
+    public void run() {
+        final boolean finished;
+
+        try {
+            finished = copyChunk();
+        } catch (final SQLException e) {
+            // Try again next run.
+            wrapper.getPlugin().debugMessage(
+                    "Could not copy global times to the new table: "
+                            + e.getMessage());
+            return;
+        }
+
+        if (finished) {
+            this.cancel();
+
+            wrapper.setMigrationPosition(null);
+
+            wrapper.getPlugin().getLogger().info(
+                    "Copied " + copied + " global times to table '"
+                            + wrapper.getTimeTable() + "'"
+                            + (skipped > 0 ? " (skipped " + skipped
+                                    + " rows without a UUID)" : "")
+                            + ". The old table '" + wrapper.getLegacyTable()
+                            + "' is not used anymore and can be removed.");
+        }
+    }
+}
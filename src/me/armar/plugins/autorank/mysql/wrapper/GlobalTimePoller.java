@@ -0,0 +1,152 @@
+package me.armar.plugins.autorank.mysql.wrapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import me.armar.plugins.autorank.data.SQLDataStorage;
+import me.armar.plugins.autorank.util.uuid.UUIDFetcher;
+
+/**
+ * Keeps the cached global times up to date with the changes of other servers. <br>
+ * Every run, only the rows that were modified since the previous run are read (with one query, using
+ * the index on the modified column). Players whose time is cached get the new time, plus the time
+ * this server has not written yet. Other players are ignored, they are looked up when they are
+ * needed. The cost of a run depends on the amount of changes, not on the amount of players.
+ */
+public class GlobalTimePoller implements Runnable {
+
+    /**
+     * Time (in ms) that is read again every run. Rows are marked as modified when a statement
+     * starts, but are only visible when it commits, so a run could otherwise miss them.
+     */
+    public static final long OVERLAP = 5000L;
+
+    private final MySQLWrapper wrapper;
+    private final SQLDataStorage mysql;
+    private final GlobalTimeCache cache;
+    private final GlobalTimeWriteQueue writeQueue;
+
+    // Most recent modification that was read, according to the clock of the database.
+    private volatile Timestamp watermark = null;
+
+    // Statistics for the debug file
+    private volatile long lastRun = 0;
+    private volatile int lastChanges = 0, lastUpdated = 0;
+
+    public GlobalTimePoller(final MySQLWrapper wrapper,
+            final SQLDataStorage mysql, final GlobalTimeCache cache,
+            final GlobalTimeWriteQueue writeQueue) {
+        this.wrapper = wrapper;
+        this.mysql = mysql;
+        this.cache = cache;
+        this.writeQueue = writeQueue;
+    }
+
+    /**
+     * Get a human readable overview of the last run.
+     *
+     * @return statistics of the last run
+     */
+    public String getStatus() {
+        if (lastRun == 0) {
+            return "not run yet";
+        }
+
+        return "last run " + ((System.currentTimeMillis() - lastRun) / 1000)
+                + " seconds ago, changed rows: " + lastChanges
+                + ", updated cached players: " + lastUpdated;
+    }
+
+    /**
+     * Read the current time of the database, so the clocks of servers do not matter.
+     */
+    private Timestamp readDatabaseTime() {
+        return mysql.executeQuery("SELECT CURRENT_TIMESTAMP",
+                new SQLDataStorage.ResultHandler<Timestamp>() {
+
+                    @Override
+                    public Timestamp handle(final ResultSet rs)
+                            throws SQLException {
+                        return rs.next() ? rs.getTimestamp(1) : null;
+                    }
+                });
+    }
+
+    @Override
+    public void run() {
+        if (watermark == null) {
+            // Everything before now is already up to date.
+            watermark = readDatabaseTime();
+            return;
+        }
+
+        final Timestamp since = new Timestamp(watermark.getTime() - OVERLAP);
+        final Timestamp[] newest = { watermark };
+
+        final Map<UUID, Integer> changes = mysql.executeQuery("SELECT uuid, time, modified FROM "
+                + wrapper.getTimeTable() + " WHERE modified >= ?",
+                new SQLDataStorage.ResultHandler<Map<UUID, Integer>>() {
+
+                    @Override
+                    public Map<UUID, Integer> handle(final ResultSet rs)
+                            throws SQLException {
+                        final Map<UUID, Integer> changes = new HashMap<UUID, Integer>();
+
+                        while (rs.next()) {
+                            final byte[] bytes = rs.getBytes(1);
+                            final Timestamp modified = rs.getTimestamp(3);
+
+                            if (modified != null && modified.after(newest[0])) {
+                                newest[0] = modified;
+                            }
+
+                            if (bytes != null && bytes.length == 16) {
+                                changes.put(UUIDFetcher.fromBytes(bytes),
+                                        rs.getInt(2));
+                            }
+                        }
+
+                        return changes;
+                    }
+                }, since);
+
+        // Try again next run.
+        if (changes == null) {
+            return;
+        }
+
+        watermark = newest[0];
+
+        int updated = 0;
+
+        if (wrapper.isMigrating()) {
+            // Part of the time might still be in the old table, so look them up completely.
+            final List<UUID> cached = new ArrayList<UUID>();
+
+            for (final UUID uuid : changes.keySet()) {
+                if (cache.get(uuid) != null) {
+                    cached.add(uuid);
+                }
+            }
+
+            wrapper.refreshDatabaseTimes(cached);
+            updated = cached.size();
+        } else {
+            for (final Map.Entry<UUID, Integer> entry : changes.entrySet()) {
+                if (cache.update(entry.getKey(), writeQueue.withPending(
+                        entry.getKey(), entry.getValue()))) {
+                    updated++;
+                }
+            }
+        }
+
+        lastRun = System.currentTimeMillis();
+        lastChanges = changes.size();
+        lastUpdated = updated;
+    }
+}
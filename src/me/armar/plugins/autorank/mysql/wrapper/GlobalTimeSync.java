@@ -0,0 +1,390 @@
+package me.armar.plugins.autorank.mysql.wrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import me.armar.plugins.autorank.data.SQLConnectionPool;
+import me.armar.plugins.autorank.data.SQLConnectionPool.PooledConnection;
+import me.armar.plugins.autorank.data.SQLDataStorage;
+import me.armar.plugins.autorank.util.uuid.UUIDFetcher;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * Adds the local time of every player of this server to their global time (/ar sync). <br>
+ * Players are synced in chunks, ordered by UUID, with a pause between chunks so the database is not
+ * flooded. Every chunk is written with one statement, in the same transaction as the position it
+ * got to. That position is stored per server in the sync table, so a sync that was cancelled or
+ * interrupted by a restart continues where it stopped, without adding any time twice.
+ */
+public class GlobalTimeSync extends BukkitRunnable {
+
+    /**
+     * Amount of chunks that may fail in a row before the sync is stopped.
+     */
+    public static final int MAX_FAILURES = 5;
+
+    // Time (in ms) between two progress reports.
+    private static final long REPORT_INTERVAL = 10000L;
+
+    /**
+     * Get the id of this server, which is used to store the position of its sync. It is created
+     * the first time and stored in sync.yml.
+     *
+     * @param wrapper MySQLWrapper
+     * @return id of this server
+     */
+    static String getServerId(final MySQLWrapper wrapper) {
+        final File file = new File(wrapper.getPlugin().getDataFolder(),
+                "sync.yml");
+        final YamlConfiguration config = YamlConfiguration
+                .loadConfiguration(file);
+
+        String id = config.getString("server id");
+
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            config.set("server id", id);
+
+            try {
+                config.save(file);
+            } catch (final IOException e) {
+                wrapper.getPlugin().getLogger()
+                        .warning("Could not save " + file.getName());
+            }
+        }
+
+        return id;
+    }
+
+    private final MySQLWrapper wrapper;
+    private final SQLDataStorage mysql;
+    private final CommandSender sender;
+    private final String serverId;
+    private final int chunkSize;
+
+    // Players to sync, sorted by UUID before the first chunk.
+    private final UUID[] uuids;
+    private final int[] times;
+
+    // Index of the next player to sync.
+    private volatile int position = -1;
+    private int synced = 0, failures = 0;
+    private long started, lastReport;
+
+    private volatile boolean finished = false;
+
+    /**
+     * Create a new sync. Call {@link #start(long)} to start it.
+     *
+     * @param wrapper MySQLWrapper
+     * @param mysql Database to sync to
+     * @param sender Sender that receives the progress
+     * @param uuids Players to sync
+     * @param times Local time of every player
+     * @param chunkSize Amount of players per chunk
+     */
+    public GlobalTimeSync(final MySQLWrapper wrapper,
+            final SQLDataStorage mysql, final CommandSender sender,
+            final UUID[] uuids, final int[] times, final int chunkSize) {
+        this.wrapper = wrapper;
+        this.mysql = mysql;
+        this.sender = sender;
+        this.serverId = getServerId(wrapper);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.uuids = uuids;
+        this.times = times;
+    }
+
+    /**
+     * Sort players (and their times) by UUID, so every sync walks over them in the same order.
+     */
+    private void sort() {
+        final Integer[] order = new Integer[uuids.length];
+
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return uuids[a].compareTo(uuids[b]);
+            }
+        });
+
+        final UUID[] sortedUUIDs = uuids.clone();
+        final int[] sortedTimes = times.clone();
+
+        for (int i = 0; i < order.length; i++) {
+            uuids[i] = sortedUUIDs[order[i]];
+            times[i] = sortedTimes[order[i]];
+        }
+    }
+
+    /**
+     * Stop the sync after the chunk that is being written. It can be continued later on.
+     */
+    public void stop() {
+        if (finished) {
+            return;
+        }
+
+        finished = true;
+        this.cancel();
+
+        message(ChatColor.YELLOW + "Sync cancelled after " + getProgress() + " of "
+                + uuids.length + " players. Use /ar sync to continue.");
+    }
+
+    /**
+     * Find where to start: at the position stored in the sync table if the previous sync of this
+     * server was not finished, at the start otherwise.
+     */
+    private void findPosition() throws SQLException {
+        final String syncTable = wrapper.getSyncTable();
+
+        final String last = mysql.executeQuery("SELECT last_uuid, done FROM "
+                + syncTable + " WHERE server = ?",
+                new SQLDataStorage.ResultHandler<String>() {
+
+                    @Override
+                    public String handle(final ResultSet rs) throws SQLException {
+                        if (!rs.next() || rs.getBoolean(2)) {
+                            return "";
+                        }
+
+                        return rs.getString(1);
+                    }
+                }, serverId);
+
+        if (last == null) {
+            throw new SQLException("Could not read the position of the sync");
+        }
+
+        if (last.isEmpty()) {
+            // Start a new sync.
+            if (mysql.executeUpdate("INSERT INTO " + syncTable
+                    + " (server, last_uuid, done) VALUES (?, '', 0)"
+                    + " ON DUPLICATE KEY UPDATE last_uuid = '', done = 0",
+                    serverId) < 0) {
+                throw new SQLException("Could not reset the position of the sync");
+            }
+
+            position = 0;
+            return;
+        }
+
+        final UUID lastUUID = UUID.fromString(last);
+
+        position = 0;
+
+        while (position < uuids.length
+                && uuids[position].compareTo(lastUUID) <= 0) {
+            position++;
+        }
+
+        message(ChatColor.GREEN + "Continuing previous sync, " + position
+                + " of " + uuids.length + " players were already synced.");
+    }
+
+    public int getProgress() {
+        return position < 0 ? 0 : position;
+    }
+
+    public int getSize() {
+        return uuids.length;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void message(final String message) {
+        sender.sendMessage(message);
+
+        if (!(sender instanceof ConsoleCommandSender)) {
+            wrapper.getPlugin().getLogger()
+                    .info(ChatColor.stripColor(message));
+        }
+    }
+
+    private void report() {
+        final long seconds = Math.max(1,
+                (System.currentTimeMillis() - started) / 1000);
+
+        message(ChatColor.GRAY + "Synced " + position + " of " + uuids.length
+                + " players (" + (position * 100 / Math.max(1, uuids.length))
+                + "%, " + (synced / seconds) + " players per second).");
+
+        lastReport = System.currentTimeMillis();
+    }
+
+    @Override
+    public void run() {
+        if (finished) {
+            return;
+        }
+
+        try {
+            if (position < 0) {
+                sort();
+                findPosition();
+            }
+
+            if (position >= uuids.length) {
+                finish();
+                return;
+            }
+
+            writeChunk();
+            failures = 0;
+        } catch (final SQLException e) {
+            failures++;
+
+            wrapper.getPlugin().debugMessage(
+                    "Could not sync chunk: " + e.getMessage());
+
+            if (failures >= MAX_FAILURES) {
+                finished = true;
+                this.cancel();
+
+                message(ChatColor.RED + "Sync stopped, the database could not be reached ("
+                        + e.getMessage() + "). Use /ar sync to continue.");
+            }
+
+            return;
+        }
+
+        if (System.currentTimeMillis() - lastReport >= REPORT_INTERVAL) {
+            report();
+        }
+    }
+
+    private void finish() throws SQLException {
+        if (mysql.executeUpdate("UPDATE " + wrapper.getSyncTable()
+                + " SET done = 1 WHERE server = ?", serverId) < 0) {
+            throw new SQLException("Could not finish the sync");
+        }
+
+        finished = true;
+        this.cancel();
+
+        final long seconds = Math.max(1,
+                (System.currentTimeMillis() - started) / 1000);
+
+        message(ChatColor.GREEN + "Successfully updated MySQL records! Synced "
+                + synced + " players in " + seconds + " seconds.");
+    }
+
+    /**
+     * Start syncing in the background.
+     *
+     * @param delay Time (in ticks) between two chunks
+     */
+    public void start(final long delay) {
+        started = System.currentTimeMillis();
+        lastReport = started;
+
+        this.runTaskTimerAsynchronously(wrapper.getPlugin(), 0L,
+                Math.max(1, delay));
+    }
+
+    /**
+     * Add the time of the next chunk of players, and store the new position in the same
+     * transaction.
+     */
+    private void writeChunk() throws SQLException {
+        final int end = Math.min(position + chunkSize, uuids.length);
+
+        final SQLConnectionPool pool = mysql.getPool();
+
+        if (pool == null) {
+            throw new SQLException("Not connected to the database");
+        }
+
+        final StringBuilder insert = new StringBuilder("INSERT INTO ")
+                .append(wrapper.getTimeTable())
+                .append(" (uuid, time, modified) VALUES ");
+        int rows = 0;
+
+        for (int i = position; i < end; i++) {
+            if (times[i] > 0) {
+                insert.append(rows == 0 ? "(?, ?, CURRENT_TIMESTAMP)"
+                        : ", (?, ?, CURRENT_TIMESTAMP)");
+                rows++;
+            }
+        }
+
+        insert.append(" ON DUPLICATE KEY UPDATE time = time + VALUES(time), modified = CURRENT_TIMESTAMP");
+
+        final PooledConnection pooled = pool.borrow();
+        final Connection connection = pooled.getConnection();
+
+        boolean broken = true;
+
+        try {
+            connection.setAutoCommit(false);
+
+            if (rows > 0) {
+                // Not cached, the amount of rows differs per chunk.
+                final PreparedStatement statement = connection
+                        .prepareStatement(insert.toString());
+
+                try {
+                    int parameter = 1;
+
+                    for (int i = position; i < end; i++) {
+                        if (times[i] > 0) {
+                            statement.setBytes(parameter++,
+                                    UUIDFetcher.toBytes(uuids[i]));
+                            statement.setInt(parameter++, times[i]);
+                        }
+                    }
+
+                    statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+            }
+
+            final PreparedStatement update = pooled.prepareStatement("UPDATE "
+                    + wrapper.getSyncTable()
+                    + " SET last_uuid = ? WHERE server = ?");
+            update.setString(1, uuids[end - 1].toString());
+            update.setString(2, serverId);
+            update.executeUpdate();
+
+            connection.commit();
+            broken = false;
+        } finally {
+            if (broken) {
+                try {
+                    connection.rollback();
+                } catch (final SQLException ignored) {
+                }
+            }
+
+            try {
+                connection.setAutoCommit(true);
+            } catch (final SQLException e) {
+                broken = true;
+            }
+
+            pool.release(pooled, broken);
+        }
+
+        synced += end - position;
+        position = end;
+    }
+}
@@ -0,0 +1,454 @@
+package me.armar.plugins.autorank.mysql.wrapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.logging.Level;
+import me.armar.plugins.autorank.Autorank;
+import me.armar.plugins.autorank.data.SQLDataStorage;
+import me.armar.plugins.autorank.util.uuid.UUIDFetcher;
+
+/**
+ * Collects changes to global times and writes them to the database in the background. <br>
+ * Changes to the same player are merged, so every player costs at most one row per flush. When the
+ * database cannot be reached, flushes are retried with an increasing delay and the changes that
+ * could not be written are kept in memory and in a spill file (mysql-spill.dat). The spill file is
+ * replaced as a whole (through a temporary file) and replayed once the database is back, also
+ * after a restart, so no time is lost during database maintenance.
+ */
+public class GlobalTimeWriteQueue {
+
+    /**
+     * A pending change of one player. Either a time to add, or a time to set (plus the time that
+     * was added after setting it).
+     */
+    private static class PendingWrite {
+
+        private final boolean absolute;
+        private final int value;
+
+        private PendingWrite(final boolean absolute, final int value) {
+            this.absolute = absolute;
+            this.value = value;
+        }
+
+        /**
+         * Merge a newer change into this change.
+         */
+        private PendingWrite merge(final PendingWrite newer) {
+            if (newer.absolute) {
+                return newer;
+            }
+
+            return new PendingWrite(absolute, value + newer.value);
+        }
+    }
+
+    private static final byte OP_ADD = 0;
+    private static final byte OP_SET = 1;
+
+    // Delay (ms) before the first retry, doubled after every failure.
+    private static final long MIN_BACKOFF = 5000L;
+    private static final long MAX_BACKOFF = 5 * 60000L;
+
+    private static void merge(final Map<UUID, PendingWrite> writes,
+            final UUID uuid, final PendingWrite newer) {
+        final PendingWrite older = writes.get(uuid);
+
+        writes.put(uuid, older == null ? newer : older.merge(newer));
+    }
+
+    private final Autorank plugin;
+    private final SQLDataStorage mysql;
+    private final MySQLWrapper wrapper;
+    private final File spillFile;
+
+    // Changes that have not been written yet, guarded by itself.
+    private final Map<UUID, PendingWrite> pending = new LinkedHashMap<UUID, PendingWrite>();
+    // Older changes that are being written or could not be written (the spill file), guarded by
+    // pending.
+    private final Map<UUID, PendingWrite> unwritten = new LinkedHashMap<UUID, PendingWrite>();
+
+    // Only one flush at a time.
+    private final Object flushLock = new Object();
+
+    // Guarded by flushLock
+    private long backoff = 0;
+    private long nextAttempt = 0;
+
+    public GlobalTimeWriteQueue(final Autorank plugin,
+            final SQLDataStorage mysql, final MySQLWrapper wrapper) {
+        this.plugin = plugin;
+        this.mysql = mysql;
+        this.wrapper = wrapper;
+        this.spillFile = new File(plugin.getDataFolder(), "mysql-spill.dat");
+
+        unwritten.putAll(readSpillFile());
+    }
+
+    /**
+     * Queue time to be added to the global time of a player.
+     *
+     * @param uuid UUID of the player
+     * @param timeDifference Time (in minutes) to add
+     */
+    public void add(final UUID uuid, final int timeDifference) {
+        synchronized (pending) {
+            merge(pending, uuid, new PendingWrite(false, timeDifference));
+        }
+    }
+
+    private File getTempSpillFile() {
+        return new File(spillFile.getParentFile(), spillFile.getName() + ".tmp");
+    }
+
+    /**
+     * Replace the spill file with the given writes. They are written to a temporary file first,
+     * so the spill file always holds a complete set of writes.
+     *
+     * @return true if they were written; false otherwise.
+     */
+    private boolean writeSpillFile(final Map<UUID, PendingWrite> writes) {
+        final File tempFile = getTempSpillFile();
+        FileOutputStream stream = null;
+
+        try {
+            stream = new FileOutputStream(tempFile);
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(stream));
+
+            for (final Entry<UUID, PendingWrite> entry : writes.entrySet()) {
+                out.writeByte(entry.getValue().absolute ? OP_SET : OP_ADD);
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeInt(entry.getValue().value);
+            }
+
+            out.flush();
+            stream.getFD().sync();
+            out.close();
+            stream = null;
+        } catch (final IOException e) {
+            plugin.getLogger().log(Level.SEVERE,
+                    "Could not write global times to " + spillFile.getName(), e);
+            return false;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (final IOException ignored) {
+                }
+            }
+        }
+
+        // File.renameTo() does not replace existing files on every platform. When we crash
+        // before the rename, the temporary file is complete and used by readSpillFile().
+        if (!tempFile.renameTo(spillFile)) {
+            spillFile.delete();
+
+            if (!tempFile.renameTo(spillFile)) {
+                plugin.getLogger().severe(
+                        "Could not replace " + spillFile.getName() + " with "
+                                + tempFile.getName() + "!");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Write all queued changes (and the changes in the spill file) to the database. <br>
+     * Does nothing while waiting for a retry after a failed flush, unless forced. Run this ASYNC,
+     * because it will block the thread it's on.
+     *
+     * @param force Whether to try even when waiting for a retry (used when Autorank is disabled)
+     */
+    public void flush(final boolean force) {
+        synchronized (flushLock) {
+            if (!force && System.currentTimeMillis() < nextAttempt) {
+                return;
+            }
+
+            final Map<UUID, PendingWrite> writes;
+            final boolean spilled = spillFile.exists();
+
+            // Spilled changes are older than the queued ones. They stay visible to
+            // withPending() while they are written.
+            synchronized (pending) {
+                for (final Entry<UUID, PendingWrite> entry : pending.entrySet()) {
+                    merge(unwritten, entry.getKey(), entry.getValue());
+                }
+
+                pending.clear();
+
+                writes = new LinkedHashMap<UUID, PendingWrite>(unwritten);
+            }
+
+            if (writes.isEmpty()) {
+                return;
+            }
+
+            final Map<UUID, PendingWrite> failed = write(writes);
+
+            synchronized (pending) {
+                unwritten.clear();
+                unwritten.putAll(failed);
+            }
+
+            if (failed.isEmpty()) {
+                backoff = 0;
+                nextAttempt = 0;
+
+                if (spilled) {
+                    plugin.getLogger().info(
+                            "Database is reachable again, written spilled global times.");
+                    spillFile.delete();
+                }
+
+                plugin.debugMessage("Written global time of " + writes.size()
+                        + " players to the database");
+                return;
+            }
+
+            backoff = backoff == 0 ? MIN_BACKOFF : Math.min(backoff * 2,
+                    MAX_BACKOFF);
+            nextAttempt = System.currentTimeMillis() + backoff;
+
+            // Replace the spill file with everything that failed. When that does not work, they
+            // are still kept in memory.
+            if (writeSpillFile(failed)) {
+                plugin.getLogger().warning(
+                        "Could not write global time of " + failed.size()
+                                + " players to the database. Saved them to "
+                                + spillFile.getName() + ", retrying in "
+                                + (backoff / 1000) + " seconds.");
+            } else {
+                plugin.getLogger().warning(
+                        "Could not write global time of " + failed.size()
+                                + " players to the database, retrying in "
+                                + (backoff / 1000) + " seconds.");
+            }
+        }
+    }
+
+    /**
+     * Get the amount of players that have changes waiting to be written.
+     *
+     * @return amount of players with queued changes (not counting the spill file)
+     */
+    public int getQueueSize() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Read all writes of the spill file. A record that was not written completely is ignored.
+     */
+    private Map<UUID, PendingWrite> readSpillFile() {
+        final Map<UUID, PendingWrite> writes = new LinkedHashMap<UUID, PendingWrite>();
+        final File tempFile = getTempSpillFile();
+
+        if (tempFile.exists()) {
+            if (spillFile.exists()) {
+                // The spill file was not replaced, so the temporary file may be incomplete.
+                tempFile.delete();
+            } else {
+                // We stopped right after removing the old spill file.
+                tempFile.renameTo(spillFile);
+            }
+        }
+
+        if (!spillFile.exists()) {
+            return writes;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(spillFile)));
+
+            while (true) {
+                final byte operation;
+                final UUID uuid;
+                final int value;
+
+                try {
+                    operation = in.readByte();
+                    uuid = new UUID(in.readLong(), in.readLong());
+                    value = in.readInt();
+                } catch (final EOFException e) {
+                    break;
+                }
+
+                merge(writes, uuid, new PendingWrite(operation == OP_SET,
+                        value));
+            }
+        } catch (final IOException e) {
+            plugin.getLogger().log(Level.SEVERE,
+                    "Could not read " + spillFile.getName(), e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException ignored) {
+                }
+            }
+        }
+
+        return writes;
+    }
+
+    /**
+     * Queue a time to be set as the global time of a player. Time that is added later on is
+     * added to this time.
+     *
+     * @param uuid UUID of the player
+     * @param time Time (in minutes) to set
+     */
+    public void set(final UUID uuid, final int time) {
+        synchronized (pending) {
+            merge(pending, uuid, new PendingWrite(true, time));
+        }
+    }
+
+    /**
+     * Get the time of a player as it will be once the queued changes are written.
+     *
+     * @param uuid UUID of the player
+     * @param databaseTime Time that is stored in the database
+     * @return time including the changes that were not written yet
+     */
+    public int withPending(final UUID uuid, final int databaseTime) {
+        PendingWrite write;
+
+        synchronized (pending) {
+            write = unwritten.get(uuid);
+
+            final PendingWrite newer = pending.get(uuid);
+
+            if (newer != null) {
+                write = write == null ? newer : write.merge(newer);
+            }
+        }
+
+        if (write == null) {
+            return databaseTime;
+        }
+
+        return write.absolute ? write.value : databaseTime + write.value;
+    }
+
+    /**
+     * Write changes to the database, up to {@link MySQLWrapper#MAX_BATCH_SIZE} players per
+     * statement.
+     *
+     * @return the changes that could not be written.
+     */
+    private Map<UUID, PendingWrite> write(final Map<UUID, PendingWrite> writes) {
+        final List<Entry<UUID, PendingWrite>> added = new ArrayList<Entry<UUID, PendingWrite>>();
+        final List<Entry<UUID, PendingWrite>> set = new ArrayList<Entry<UUID, PendingWrite>>();
+
+        for (final Entry<UUID, PendingWrite> entry : writes.entrySet()) {
+            if (entry.getValue().absolute) {
+                set.add(entry);
+            } else if (entry.getValue().value != 0) {
+                added.add(entry);
+            }
+        }
+
+        final Map<UUID, PendingWrite> failed = new LinkedHashMap<UUID, PendingWrite>();
+
+        // Let the database add the time, so it is atomic across servers.
+        writeBatches(added, "time = time + VALUES(time)", false, failed);
+        writeBatches(set, "time = VALUES(time)", true, failed);
+
+        return failed;
+    }
+
+    /**
+     * Remove players from the table that is being migrated.
+     *
+     * @return true if they were removed; false otherwise.
+     */
+    private boolean deleteLegacy(final List<Entry<UUID, PendingWrite>> batch) {
+        final StringBuilder statement = new StringBuilder("DELETE FROM ")
+                .append(wrapper.getLegacyTable()).append(" WHERE uuid IN (");
+        final Object[] parameters = new Object[batch.size()];
+
+        for (int i = 0; i < batch.size(); i++) {
+            statement.append(i == 0 ? "?" : ", ?");
+            parameters[i] = batch.get(i).getKey().toString();
+        }
+
+        statement.append(")");
+
+        return mysql.executeUpdate(statement.toString(), parameters) >= 0;
+    }
+
+    private void writeBatches(final List<Entry<UUID, PendingWrite>> writes,
+            final String update, final boolean absolute,
+            final Map<UUID, PendingWrite> failed) {
+        for (int start = 0; start < writes.size(); start += MySQLWrapper.MAX_BATCH_SIZE) {
+            final List<Entry<UUID, PendingWrite>> batch = writes.subList(start,
+                    Math.min(start + MySQLWrapper.MAX_BATCH_SIZE, writes.size()));
+
+            // Database is down, do not bother trying the other batches.
+            if (!failed.isEmpty()) {
+                for (final Entry<UUID, PendingWrite> entry : batch) {
+                    failed.put(entry.getKey(), entry.getValue());
+                }
+
+                continue;
+            }
+
+            // A time that is set replaces the old time, so it should not be migrated anymore.
+            if (absolute && wrapper.isMigrating() && !deleteLegacy(batch)) {
+                for (final Entry<UUID, PendingWrite> entry : batch) {
+                    failed.put(entry.getKey(), entry.getValue());
+                }
+
+                continue;
+            }
+
+            final StringBuilder statement = new StringBuilder("INSERT INTO ")
+                    .append(wrapper.getTimeTable())
+                    .append(" (uuid, time, modified) VALUES ");
+            final Object[] parameters = new Object[batch.size() * 2];
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) {
+                    statement.append(", ");
+                }
+
+                statement.append("(?, ?, CURRENT_TIMESTAMP)");
+
+                parameters[i * 2] = UUIDFetcher.toBytes(batch.get(i).getKey());
+                parameters[i * 2 + 1] = batch.get(i).getValue().value;
+            }
+
+            statement.append(" ON DUPLICATE KEY UPDATE ").append(update)
+                    .append(", modified = CURRENT_TIMESTAMP");
+
+            if (mysql.executeUpdate(statement.toString(), parameters) < 0) {
+                for (final Entry<UUID, PendingWrite> entry : batch) {
+                    failed.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+}
@@ -2,65 +2,105 @@ package me.armar.plugins.autorank.mysql.wrapper;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import me.armar.plugins.autorank.data.SQLDataStorage;
+import me.armar.plugins.autorank.util.uuid.UUIDFetcher;
 
 /**
- * This will get the database time.
+ * This will get the database time of a group of players with one query.
  *
- * We have to wait for the thread to finish before we can get the results Every database lookup
- * will have to have its own thread.
+ * Tasks are run on the executor of {@link MySQLWrapper}, so multiple groups can be looked up at
+ * the same time. While the table of an older version is being migrated, times that were not
+ * copied yet are read from the old table in the same query, so a time is never counted twice.
  *
  * @author Staartvin
  *
  */
-public class GrabDatabaseTimeTask implements Callable<Integer> {
+public class GrabDatabaseTimeTask implements Callable<Map<UUID, Integer>> {
 
     private final SQLDataStorage mysql;
-    private final String table;
-    private final UUID uuid;
+    private final MySQLWrapper wrapper;
+    private final List<UUID> uuids;
 
-    public GrabDatabaseTimeTask(final SQLDataStorage mysql, final UUID uuid,
-            final String table) {
+    public GrabDatabaseTimeTask(final SQLDataStorage mysql,
+            final List<UUID> uuids, final MySQLWrapper wrapper) {
         this.mysql = mysql;
-        this.uuid = uuid;
-        this.table = table;
+        this.uuids = uuids;
+        this.wrapper = wrapper;
     }
 
-    /* (non-Javadoc)
+    /**
+     * Get the time of every player that is stored in the database. Players that are not stored
+     * are left out.
+     *
      * @see java.util.concurrent.Callable#call()
      */
     @Override
-    public Integer call() throws Exception {
-        if (mysql == null) {
-            return -1;
+    public Map<UUID, Integer> call() throws Exception {
+        final Map<UUID, Integer> times = new HashMap<UUID, Integer>();
+
+        if (mysql == null || uuids.isEmpty()) {
+            return times;
         }
 
-        int time = -1;
+        final boolean migrating = wrapper.isMigrating();
 
-        final String statement = "SELECT * FROM " + table + " WHERE uuid='"
-                + uuid.toString() + "'";
-        final ResultSet rs = mysql.executeQuery(statement);
+        final StringBuilder statement = new StringBuilder("SELECT uuid, time FROM ")
+                .append(wrapper.getTimeTable()).append(" WHERE uuid IN (");
+        final Object[] parameters = new Object[migrating ? uuids.size() * 2
+                : uuids.size()];
 
-        if (rs == null) {
-            return time;
+        for (int i = 0; i < uuids.size(); i++) {
+            statement.append(i == 0 ? "?" : ", ?");
+            parameters[i] = UUIDFetcher.toBytes(uuids.get(i));
         }
 
-        try {
-            if (rs.next()) {
-                time = rs.getInt(2);
-            } else {
-                return time;
+        statement.append(")");
+
+        if (migrating) {
+            // Rows after the migration position have not been copied yet.
+            statement.append(" UNION ALL SELECT UNHEX(REPLACE(uuid, '-', '')), time FROM ")
+                    .append(wrapper.getLegacyTable()).append(" WHERE uuid IN (");
+
+            for (int i = 0; i < uuids.size(); i++) {
+                statement.append(i == 0 ? "?" : ", ?");
+                parameters[uuids.size() + i] = uuids.get(i).toString();
             }
 
-        } catch (final SQLException e) {
-            System.out.println("SQLException: " + e.getMessage());
-            System.out.println("SQLState: " + e.getSQLState());
-            System.out.println("VendorError: " + e.getErrorCode());
+            statement.append(") AND uuid > (SELECT last_uuid FROM ")
+                    .append(wrapper.getMigrationTable())
+                    .append(" WHERE id = 1 AND done = 0)");
         }
 
-        return time;
+        mysql.executeQuery(statement.toString(),
+                new SQLDataStorage.ResultHandler<Void>() {
+
+                    @Override
+                    public Void handle(final ResultSet rs) throws SQLException {
+                        while (rs.next()) {
+                            final byte[] bytes = rs.getBytes(1);
+
+                            if (bytes == null || bytes.length != 16) {
+                                // Not a valid UUID, skip it.
+                                continue;
+                            }
+
+                            final UUID uuid = UUIDFetcher.fromBytes(bytes);
+                            final Integer time = times.get(uuid);
+
+                            times.put(uuid, time == null ? rs.getInt(2) : time
+                                    + rs.getInt(2));
+                        }
+
+                        return null;
+                    }
+                }, parameters);
+
+        return times;
     }
 
 }
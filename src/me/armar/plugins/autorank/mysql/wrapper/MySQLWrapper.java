@@ -1,12 +1,25 @@
 package me.armar.plugins.autorank.mysql.wrapper;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
 import me.armar.plugins.autorank.Autorank;
 import me.armar.plugins.autorank.config.ConfigHandler;
 import me.armar.plugins.autorank.config.ConfigHandler.MySQLOptions;
+import me.armar.plugins.autorank.data.SQLConnectionPool;
+import me.armar.plugins.autorank.data.SQLConnectionPool.PooledConnection;
 import me.armar.plugins.autorank.data.SQLDataStorage;
+import me.armar.plugins.autorank.util.uuid.UUIDFetcher;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 
 /**
  * This class keeps all incoming and outgoing under control. It sends MySQL queries and can locate
@@ -20,25 +33,125 @@ import me.armar.plugins.autorank.data.SQLDataStorage;
  */
 public class MySQLWrapper {
 
+    /**
+     * Maximum amount of rows that are added in one statement.
+     */
+    public static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * Maximum amount of players whose global time is cached.
+     */
+    public static final int CACHE_SIZE = 5000;
+
     String hostname, username, password, database, table;
-    // Keeps track of when a call to the database was for this player
-    private final HashMap<UUID, Long> lastChecked = new HashMap<UUID, Long>();
+    // Table with the global times (UUIDs stored as 16 bytes).
+    private String timeTable;
+    // Position of the migration of the old table, null if nothing has to be migrated.
+    private volatile String migrationPosition = null;
     // Stores the last received global time for a player
-    private final HashMap<UUID, Integer> lastReceivedTime = new HashMap<UUID, Integer>();
+    private final GlobalTimeCache cache = new GlobalTimeCache(CACHE_SIZE);
+    // Changes that still have to be written to the database
+    private GlobalTimeWriteQueue writeQueue;
+    // Reads the changes of other servers
+    private GlobalTimePoller poller;
+    // Sync that was started last (/ar sync), null if no sync was started
+    private volatile GlobalTimeSync sync;
 
     private SQLDataStorage mysql;
     private final Autorank plugin;
 
+    // Runs all database lookups
+    private final ExecutorService executor;
+
     public MySQLWrapper(final Autorank instance) {
         plugin = instance;
 
+        executor = Executors.newFixedThreadPool(Math.max(1, plugin
+                .getConfigHandler().getMySQLPoolSize()), new ThreadFactory() {
+
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable,
+                        "Autorank MySQL lookup #" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
         sqlSetup();
 
         if (mysql != null) {
             setupTable();
+
+            writeQueue = new GlobalTimeWriteQueue(plugin, mysql, this);
+            poller = new GlobalTimePoller(this, mysql, cache, writeQueue);
+
+            // Close connections that are too old and report leaked connections every minute.
+            plugin.getServer().getScheduler()
+                    .runTaskTimerAsynchronously(plugin, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            final SQLConnectionPool pool = mysql.getPool();
+
+                            if (pool != null) {
+                                pool.retireExpired();
+                            }
+                        }
+                    }, 1200L, 1200L);
+
+            // Refresh times of online players before they expire.
+            plugin.getServer().getScheduler()
+                    .runTaskTimerAsynchronously(plugin, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            refreshOnlinePlayers();
+                        }
+                    }, 1200L, 1200L);
+
+            // Read what other servers changed.
+            final long syncTicks = Math.max(1, plugin.getConfigHandler()
+                    .getMySQLSyncInterval()) * 20L;
+
+            plugin.getServer().getScheduler()
+                    .runTaskTimerAsynchronously(plugin, poller, syncTicks,
+                            syncTicks);
+
+            // Write added time to the database every 30 seconds.
+            plugin.getServer().getScheduler()
+                    .runTaskTimerAsynchronously(plugin, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            flushGlobalTime();
+                        }
+                    }, 600L, 600L);
         }
     }
 
+    /**
+     * Add time to the global time of a player. <br>
+     * The time is not written right away: all added time is collected and written with
+     * {@link #flushGlobalTime()}. The database adds it to the stored time itself, so time added by
+     * other servers at the same moment is not lost.
+     *
+     * @param uuid UUID of the player
+     * @param timeDifference Time (in minutes) to add
+     */
+    public void addGlobalTime(final UUID uuid, final int timeDifference) {
+        if (!isMySQLEnabled() || timeDifference == 0) {
+            return;
+        }
+
+        writeQueue.add(uuid, timeDifference);
+
+        // Keep the cached value up to date
+        cache.add(uuid, timeDifference);
+    }
+
     /**
      * Get the cached value of the global time.
      *
@@ -46,24 +159,219 @@ public class MySQLWrapper {
      * @return cached global time or -1 if nothing was cached.
      */
     public Integer getCachedGlobalTime(final UUID uuid) {
-        if (!lastReceivedTime.containsKey(uuid)) {
-            return -1;
-        }
-
-        final int cached = lastReceivedTime.get(uuid);
+        final Integer cached = cache.get(uuid);
 
         // Weird cached
-        if (cached <= 0) {
+        if (cached == null || cached <= 0) {
             return -1;
         }
 
         return cached;
     }
 
+    /**
+     * Write all added time to the database and close all connections.
+     */
+    public void close() {
+        executor.shutdown();
+
+        if (mysql != null) {
+            // Last chance, anything that fails is kept in the spill file.
+            writeQueue.flush(true);
+
+            mysql.close();
+        }
+    }
+
+    /**
+     * Write all time that was added or set to the database. <br>
+     * Changes are written with as few statements as possible (up to {@link #MAX_BATCH_SIZE}
+     * players per statement). See {@link GlobalTimeWriteQueue} for what happens when the database
+     * cannot be reached. <br>
+     * Run this ASYNC, because it will block the thread it's on.
+     */
+    public void flushGlobalTime() {
+        if (!isMySQLEnabled()) {
+            return;
+        }
+
+        writeQueue.flush(false);
+    }
+
+    /**
+     * Get statistics of reading the changes of other servers.
+     *
+     * @return human readable statistics
+     */
+    public String getSyncStatus() {
+        return poller == null ? "disabled" : poller.getStatus();
+    }
+
     public String getDatabaseName() {
         return database;
     }
 
+    /**
+     * Get the name of the table that was used before UUIDs were stored as 16 bytes. It is only
+     * read while it is migrated.
+     *
+     * @return name of the old table (the table set in the config)
+     */
+    public String getLegacyTable() {
+        return table;
+    }
+
+    /**
+     * Get the position of the migration of the old table: times of UUIDs that sort after it are
+     * still in the old table.
+     *
+     * @return the last migrated UUID, an empty string if nothing was migrated yet, or null if
+     *         nothing has to be migrated.
+     */
+    public String getMigrationPosition() {
+        return migrationPosition;
+    }
+
+    /**
+     * Get the name of the table that keeps track of the migration of the old table.
+     *
+     * @return name of the migration table
+     */
+    public String getMigrationTable() {
+        return table + "_migration";
+    }
+
+    public Autorank getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Get the players with the highest global time, straight from the database. Only the
+     * requested rows are read (using the index on time), so it does not load the whole table.
+     * <br>
+     * While an old table is being migrated, both tables have to be combined, which is slower.
+     * <br>
+     * Run this ASYNC, because it will block the thread it's on.
+     *
+     * @param amount Maximum amount of players to get
+     * @return global time per player, ordered from high to low, or null if the database could not
+     *         be reached.
+     */
+    public Map<UUID, Integer> getTopDatabaseTimes(final int amount) {
+        if (!isMySQLEnabled()) {
+            return null;
+        }
+
+        final String statement;
+
+        if (isMigrating()) {
+            statement = "SELECT uuid, SUM(time) AS total FROM (SELECT uuid, time FROM "
+                    + timeTable
+                    + " UNION ALL SELECT UNHEX(REPLACE(uuid, '-', '')), time FROM "
+                    + table
+                    + " WHERE uuid > (SELECT last_uuid FROM "
+                    + getMigrationTable()
+                    + " WHERE id = 1 AND done = 0)) AS times"
+                    + " GROUP BY uuid ORDER BY total DESC LIMIT ?";
+        } else {
+            statement = "SELECT uuid, time FROM " + timeTable
+                    + " ORDER BY time DESC LIMIT ?";
+        }
+
+        return mysql.executeQuery(statement,
+                new SQLDataStorage.ResultHandler<Map<UUID, Integer>>() {
+
+                    @Override
+                    public Map<UUID, Integer> handle(final ResultSet rs)
+                            throws SQLException {
+                        final Map<UUID, Integer> times = new LinkedHashMap<UUID, Integer>();
+
+                        while (rs.next()) {
+                            final byte[] bytes = rs.getBytes(1);
+
+                            // Not a valid UUID, skip it.
+                            if (bytes != null && bytes.length == 16) {
+                                times.put(UUIDFetcher.fromBytes(bytes),
+                                        rs.getInt(2));
+                            }
+                        }
+
+                        return times;
+                    }
+                }, amount);
+    }
+
+    /**
+     * Get the sync that was started last with {@link #startSync(CommandSender, UUID[], int[])}.
+     *
+     * @return the last sync (it might be finished), or null if no sync was started.
+     */
+    public GlobalTimeSync getSync() {
+        return sync;
+    }
+
+    /**
+     * Get the name of the table that stores how far every server got with syncing.
+     *
+     * @return name of the sync table
+     */
+    public String getSyncTable() {
+        return table + "_sync";
+    }
+
+    /**
+     * Get the name of the table that stores the global times.
+     *
+     * @return name of the table
+     */
+    public String getTimeTable() {
+        return timeTable;
+    }
+
+    /**
+     * Get the rank a global time has on the global leaderboard, counted by the database (using the
+     * index on time). <br>
+     * While an old table is being migrated, only the new table is counted. <br>
+     * Run this ASYNC, because it will block the thread it's on.
+     *
+     * @param time Global time of a player
+     * @param exempted Players that are not counted, because they are not on the leaderboard
+     * @return rank of the time (1 is the highest time), or -1 if the database could not be
+     *         reached.
+     */
+    public int getDatabaseRank(final int time, final Collection<UUID> exempted) {
+        if (!isMySQLEnabled()) {
+            return -1;
+        }
+
+        final StringBuilder statement = new StringBuilder("SELECT COUNT(*) FROM ")
+                .append(timeTable).append(" WHERE time > ?");
+        final List<Object> parameters = new ArrayList<Object>();
+        parameters.add(time);
+
+        if (!exempted.isEmpty()) {
+            statement.append(" AND uuid NOT IN (");
+
+            for (final UUID uuid : exempted) {
+                statement.append(parameters.size() == 1 ? "?" : ", ?");
+                parameters.add(UUIDFetcher.toBytes(uuid));
+            }
+
+            statement.append(")");
+        }
+
+        final Integer higher = mysql.executeQuery(statement.toString(),
+                new SQLDataStorage.ResultHandler<Integer>() {
+
+                    @Override
+                    public Integer handle(final ResultSet rs) throws SQLException {
+                        return rs.next() ? rs.getInt(1) : 0;
+                    }
+                }, parameters.toArray());
+
+        return higher == null ? -1 : higher + 1;
+    }
+
     /**
      * Gets the database time of player <br>
      * Run this ASYNC, because it will block the thread it's on.
@@ -75,50 +383,111 @@ public class MySQLWrapper {
      * @return time player has played across all servers
      */
     public int getDatabaseTime(final UUID uuid) {
+        final Integer time = getDatabaseTimes(Collections.singletonList(uuid))
+                .get(uuid);
 
-        // Do not make a call to the database every time.
-        // Instead, only call once every 5 minutes.
-        if (!isOutOfDate(uuid)) {
-            return getCachedGlobalTime(uuid);
+        return time == null ? -1 : time;
+    }
+
+    /**
+     * Gets the database time of a group of players (for example, all online players). <br>
+     * Only players whose cached time is out of date are looked up, with one query per
+     * {@link #MAX_BATCH_SIZE} players. The queries run at the same time on a shared executor.
+     * <br>
+     * Run this ASYNC, because it will block the thread it's on.
+     *
+     * @param uuids UUIDs to get the time of
+     * @return time every player has played across all servers, -1 if a player has no time stored.
+     */
+    public Map<UUID, Integer> getDatabaseTimes(final Collection<UUID> uuids) {
+        final Map<UUID, Integer> times = new HashMap<UUID, Integer>();
+        final List<UUID> outdated = new ArrayList<UUID>();
+
+        for (final UUID uuid : uuids) {
+            // Do not make a call to the database every time.
+            // Instead, only call once every 5 minutes.
+            final Integer cached = cache.get(uuid);
+
+            if (cached != null) {
+                times.put(uuid, cached);
+            } else if (!times.containsKey(uuid)) {
+                times.put(uuid, -1);
+                outdated.add(uuid);
+            }
         }
 
+        times.putAll(fetchDatabaseTimes(outdated));
+
+        return times;
+    }
+
+    /**
+     * Look up the database time of players, without looking at the cache. The results are cached.
+     *
+     * @param uuids UUIDs to look up
+     * @return time of every player that could be looked up, -1 if a player has no time stored.
+     */
+    private Map<UUID, Integer> fetchDatabaseTimes(final List<UUID> uuids) {
+        final Map<UUID, Integer> times = new HashMap<UUID, Integer>();
+
         // Mysql is not enabled
-        if (!isMySQLEnabled()) {
-            return -1;
+        if (uuids.isEmpty() || !isMySQLEnabled()) {
+            return times;
         }
 
-        // Check if connection is still alive
-        if (mysql.isClosed()) {
-            mysql.connect();
-        }
-        // Retrieve database time
-        // Setup executor service with pool = 1
-        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final List<Future<Map<UUID, Integer>>> futures = new ArrayList<Future<Map<UUID, Integer>>>();
 
-        // Initialise new callable class
-        final Callable<Integer> callable = new GrabDatabaseTimeTask(mysql,
-                uuid, table);
+        for (int start = 0; start < uuids.size(); start += MAX_BATCH_SIZE) {
+            final List<UUID> batch = uuids.subList(start,
+                    Math.min(start + MAX_BATCH_SIZE, uuids.size()));
 
-        // Sumbit callable
-        final Future<Integer> futureValue = executor.submit(callable);
+            futures.add(executor.submit(new GrabDatabaseTimeTask(mysql,
+                    new ArrayList<UUID>(batch), this)));
+        }
 
-        // Grab value (will block thread, but there is no other way)
+        // Grab values (will block thread, but there is no other way)
         // That's why you need to run this async.
-        int value = -1;
+        boolean failed = false;
+
+        for (final Future<Map<UUID, Integer>> future : futures) {
+            try {
+                times.putAll(future.get());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed = true;
+            } catch (final ExecutionException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        }
 
-        try {
-            value = futureValue.get();
-        } catch (final InterruptedException e) {
-            e.printStackTrace();
-        } catch (final ExecutionException e) {
-            e.printStackTrace();
+        // Do not cache anything when we do not know for sure.
+        if (failed) {
+            return times;
         }
 
-        // Store last received time and last received value
-        lastChecked.put(uuid, System.currentTimeMillis());
-        lastReceivedTime.put(uuid, value);
+        for (final UUID uuid : uuids) {
+            if (!times.containsKey(uuid)) {
+                times.put(uuid, -1);
+            }
+
+            cache.put(uuid, times.get(uuid));
+        }
+
+        return times;
+    }
+
+    /**
+     * Get statistics of the cache of global times.
+     *
+     * @return human readable statistics
+     */
+    public String getCacheStatus() {
+        return cache.getStatus();
+    }
 
-        return value;
+    public boolean isMigrating() {
+        return migrationPosition != null;
     }
 
     public boolean isMySQLEnabled() {
@@ -126,30 +495,39 @@ public class MySQLWrapper {
     }
 
     public boolean isOutOfDate(final UUID uuid) {
-		// Checks whether the last check was five minutes ago.
-        // When the last check was more than five minutes ago,
-        // the database time is 'outdated'
+        // Cached times expire five minutes after they were received,
+        // after that the database time is 'outdated'
+        return cache.get(uuid) == null;
+    }
 
-        // Never checked
-        if (!lastChecked.containsKey(uuid)) {
-            return true;
-        }
+    /**
+     * Look up the global time of players again, even when it is cached.
+     *
+     * @param uuids UUIDs to look up
+     */
+    void refreshDatabaseTimes(final List<UUID> uuids) {
+        fetchDatabaseTimes(uuids);
+    }
 
-        final long currentTime = System.currentTimeMillis();
+    /**
+     * Fetch the global time of online players whose cached time is about to expire, so they
+     * never have to wait for the database when they are checked. <br>
+     * Run this ASYNC, because it will block the thread it's on.
+     */
+    public void refreshOnlinePlayers() {
+        if (!isMySQLEnabled()) {
+            return;
+        }
 
-        final long lastCheckedTime = lastChecked.get(uuid);
+        final List<UUID> refresh = new ArrayList<UUID>();
 
-        // Weird time received.
-        if (lastCheckedTime <= 0) {
-            return true;
+        for (final Player player : plugin.getServer().getOnlinePlayers()) {
+            if (cache.needsRefresh(player.getUniqueId())) {
+                refresh.add(player.getUniqueId());
+            }
         }
 
-        // Get the difference in minutes
-        if ((currentTime - lastCheckedTime) / 60000 >= 5) {
-            return true;
-        } else {
-            return false;
-        }
+        fetchDatabaseTimes(refresh);
     }
 
     /**
@@ -164,51 +542,145 @@ public class MySQLWrapper {
             return;
         }
 
-        // Check if connection is still alive
-        if (mysql.isClosed()) {
-            mysql.connect();
-        }
-
-        final String statement = "INSERT INTO " + table + " VALUES ('"
-                + uuid.toString() + "', " + time + ", CURRENT_TIMESTAMP) "
-                + "ON DUPLICATE KEY UPDATE " + "time=" + time;
+        writeQueue.set(uuid, time);
 
-        // Run async to prevent load issues.
+        // Write it right away, run async to prevent load issues.
         plugin.getServer().getScheduler()
                 .runTaskAsynchronously(plugin, new Runnable() {
 
                     @Override
                     public void run() {
-                        // TODO Auto-generated method stub
-                        mysql.execute(statement);
+                        flushGlobalTime();
                     }
                 });
 
         // Update cache records
-        this.lastChecked.put(uuid, System.currentTimeMillis());
-        this.lastReceivedTime.put(uuid, time);
+        cache.put(uuid, time);
+    }
+
+    void setMigrationPosition(final String migrationPosition) {
+        this.migrationPosition = migrationPosition;
+    }
+
+    /**
+     * Add the local time of players to their global time, in the background. A sync of this
+     * server that was not finished is continued. Progress is sent to the sender.
+     *
+     * @param sender Sender that receives the progress
+     * @param uuids Players to sync
+     * @param times Local time of every player
+     * @return the sync that was started, or null if MySQL is not used or a sync is still running.
+     */
+    public synchronized GlobalTimeSync startSync(final CommandSender sender,
+            final UUID[] uuids, final int[] times) {
+        if (!isMySQLEnabled() || (sync != null && !sync.isFinished())) {
+            return null;
+        }
+
+        final ConfigHandler configHandler = plugin.getConfigHandler();
+
+        sync = new GlobalTimeSync(this, mysql, sender, uuids, times,
+                configHandler.getMySQLSyncChunkSize());
+        sync.start(configHandler.getMySQLSyncChunkDelay());
+
+        return sync;
     }
 
+    /**
+     * Create the table of global times. UUIDs are stored as 16 bytes instead of text and time is
+     * indexed, so the table stays small and can be sorted on time. <br>
+     * When the table of an older version exists, its times are copied to the new table in the
+     * background by {@link GlobalTimeMigration}. Until that is done, times are read from both
+     * tables. <br>
+     * This is not run async (just like connecting), so the tables exist before anything is read or
+     * written.
+     */
     public void setupTable() {
-        // Check if connection is still alive
-        if (mysql.isClosed()) {
-            mysql.connect();
+        timeTable = table + "_v2";
+
+        mysql.execute("CREATE TABLE IF NOT EXISTS " + timeTable + " "
+                + "(uuid BINARY(16) not NULL, time INTEGER not NULL, "
+                + "modified TIMESTAMP not NULL, PRIMARY KEY (uuid), "
+                + "INDEX " + timeTable + "_time (time), "
+                + "INDEX " + timeTable + "_modified (modified))");
+
+        mysql.execute("CREATE TABLE IF NOT EXISTS " + getSyncTable()
+                + " (server VARCHAR(36) not NULL, last_uuid VARCHAR(36) not NULL, "
+                + "done TINYINT not NULL, PRIMARY KEY (server))");
+
+        if (!tableExists(table)) {
+            return;
         }
 
-        final String statement = "CREATE TABLE  IF NOT EXISTS " + table + " "
-                + "(uuid VARCHAR(255) not NULL, " + " time INTEGER not NULL, "
-                + " modified TIMESTAMP not NULL, " + " PRIMARY KEY ( uuid ))";
+        mysql.execute("CREATE TABLE IF NOT EXISTS " + getMigrationTable()
+                + " (id INTEGER not NULL, last_uuid VARCHAR(255) not NULL, "
+                + "done TINYINT not NULL, PRIMARY KEY (id))");
+        mysql.executeUpdate("INSERT INTO " + getMigrationTable()
+                + " (id, last_uuid, done) VALUES (1, '', 0)"
+                + " ON DUPLICATE KEY UPDATE id = id");
 
-        // Run async to prevent load issues.
-        plugin.getServer().getScheduler()
-                .runTaskAsynchronously(plugin, new Runnable() {
+        final String position = mysql.executeQuery("SELECT last_uuid, done FROM "
+                + getMigrationTable() + " WHERE id = 1",
+                new SQLDataStorage.ResultHandler<String>() {
 
                     @Override
-                    public void run() {
-                        mysql.execute(statement);
+                    public String handle(final ResultSet rs) throws SQLException {
+                        if (!rs.next() || rs.getBoolean(2)) {
+                            return null;
+                        }
+
+                        return rs.getString(1);
                     }
                 });
 
+        if (position == null) {
+            return;
+        }
+
+        migrationPosition = position;
+
+        plugin.getLogger().info(
+                "Copying global times of table '" + table + "' to table '"
+                        + timeTable + "' in the background.");
+
+        new GlobalTimeMigration(this, mysql).runTaskTimerAsynchronously(plugin,
+                GlobalTimeMigration.RUN_TICKS, GlobalTimeMigration.RUN_TICKS);
+    }
+
+    /**
+     * Check whether a table exists in the database.
+     *
+     * @param name Name of the table
+     * @return true if it exists; false if it does not exist or the database could not be reached.
+     */
+    private boolean tableExists(final String name) {
+        final SQLConnectionPool pool = mysql.getPool();
+
+        if (pool == null) {
+            return false;
+        }
+
+        PooledConnection connection = null;
+
+        try {
+            connection = pool.borrow();
+
+            final ResultSet rs = connection.getConnection().getMetaData()
+                    .getTables(null, null, name, null);
+
+            try {
+                return rs.next();
+            } finally {
+                rs.close();
+            }
+        } catch (final SQLException e) {
+            plugin.getLogger().warning(
+                    "Could not check whether table '" + name + "' exists: "
+                            + e.getMessage());
+            return false;
+        } finally {
+            pool.release(connection, false);
+        }
     }
 
     public void sqlSetup() {
@@ -231,6 +703,11 @@ public class MySQLWrapper {
             table = configHandler.getMySQLSettings(MySQLOptions.TABLE);
 
             mysql = new SQLDataStorage(hostname, username, password, database);
+
+            mysql.setPoolSize(configHandler.getMySQLPoolSize());
+            mysql.setMaxLifetime(configHandler.getMySQLMaxLifetime() * 60000L);
+            mysql.setLeakThreshold(configHandler.getMySQLLeakThreshold() * 1000L);
+
             if (!mysql.connect()) {
                 mysql = null;
                 plugin.getLogger().severe("Could not connect to " + hostname);
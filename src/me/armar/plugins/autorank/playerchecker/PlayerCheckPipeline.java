@@ -0,0 +1,142 @@
+package me.armar.plugins.autorank.playerchecker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import me.armar.plugins.autorank.Autorank;
+import org.bukkit.entity.Player;
+
+/**
+ * Checks players in two stages, so checks can be requested from any thread. <br>
+ * The first stage runs async and gathers the data that does not need the server in bulk (global
+ * times), so it is cached when the player is checked. The second stage runs on the main
+ * thread and does the actual check of {@link PlayerChecker#checkPlayer(Player)}, which reads the
+ * player's inventory, location and permissions and performs results (commands, teleports, rank
+ * changes). It only uses a small part of every tick, so a lot of checks at once do not cause lag.
+ */
+public class PlayerCheckPipeline {
+
+    /**
+     * How often (in ticks) data of queued players is gathered.
+     */
+    public static final long GATHER_TICKS = 10L;
+
+    private final Autorank plugin;
+    private final long budget;
+
+    // Players waiting for their data to be gathered.
+    private final Queue<Player> gatherQueue = new ConcurrentLinkedQueue<Player>();
+    // Players waiting to be checked on the main thread.
+    private final Queue<Player> checkQueue = new ConcurrentLinkedQueue<Player>();
+    // Players that are in one of the queues, so they are not queued twice.
+    private final Set<UUID> queued = Collections
+            .newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+
+    public PlayerCheckPipeline(final Autorank plugin) {
+        this.plugin = plugin;
+        this.budget = plugin.getConfigHandler().getRankCheckBudget() * 1000000L;
+
+        // Gather data async
+        plugin.getServer().getScheduler()
+                .runTaskTimerAsynchronously(plugin, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        gather();
+                    }
+                }, GATHER_TICKS, GATHER_TICKS);
+
+        // Check players on the main thread, every tick.
+        plugin.getServer().getScheduler()
+                .runTaskTimer(plugin, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        check();
+                    }
+                }, 1L, 1L);
+    }
+
+    /**
+     * Check the queued players whose data was gathered, until the budget of this tick is used.
+     */
+    private void check() {
+        final long start = System.nanoTime();
+        int checked = 0;
+
+        while (!checkQueue.isEmpty()) {
+            // Always check at least one player, so we never get stuck.
+            if (checked > 0 && System.nanoTime() - start >= budget) {
+                break;
+            }
+
+            final Player player = checkQueue.poll();
+
+            queued.remove(player.getUniqueId());
+
+            // Player left in the meantime
+            if (!player.isOnline()) {
+                continue;
+            }
+
+            plugin.getPlayerChecker().checkPlayer(player);
+            checked++;
+        }
+    }
+
+    /**
+     * Gather the data of all queued players and pass them on to be checked.
+     */
+    private void gather() {
+        final List<Player> players = new ArrayList<Player>();
+
+        Player player;
+
+        while ((player = gatherQueue.poll()) != null) {
+            players.add(player);
+        }
+
+        if (players.isEmpty()) {
+            return;
+        }
+
+        // Fetch global times at once, they are cached by the MySQL wrapper.
+        if (plugin.getMySQLWrapper().isMySQLEnabled()) {
+            final List<UUID> uuids = new ArrayList<UUID>();
+
+            for (final Player queuedPlayer : players) {
+                uuids.add(queuedPlayer.getUniqueId());
+            }
+
+            plugin.getMySQLWrapper().getDatabaseTimes(uuids);
+        }
+
+        checkQueue.addAll(players);
+    }
+
+    /**
+     * Get the amount of players that are waiting to be checked.
+     *
+     * @return amount of queued players
+     */
+    public int getQueueSize() {
+        return queued.size();
+    }
+
+    /**
+     * Queue a player to be checked. Can be called from any thread. <br>
+     * Nothing happens when the player is already queued.
+     *
+     * @param player Player to check
+     */
+    public void queue(final Player player) {
+        if (queued.add(player.getUniqueId())) {
+            gatherQueue.add(player);
+        }
+    }
+}
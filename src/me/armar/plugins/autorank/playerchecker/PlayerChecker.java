@@ -23,11 +23,13 @@ public class PlayerChecker {
 
     private RankChangeBuilder builder;
     private final Autorank plugin;
+    private final PlayerCheckPipeline pipeline;
     private final Map<String, List<RankChange>> rankChanges = new HashMap<String, List<RankChange>>();
 
     public PlayerChecker(final Autorank plugin) {
         setBuilder(new RankChangeBuilder(plugin));
         this.plugin = plugin;
+        this.pipeline = new PlayerCheckPipeline(plugin);
     }
 
     public void addRankChange(final String name, final RankChange change) {
@@ -66,6 +68,16 @@ public class PlayerChecker {
         return result;
     }
 
+    /**
+     * Queue a player to be checked. Unlike {@link #checkPlayer(Player)}, this can be called from
+     * any thread. The player is checked on the main thread a bit later.
+     *
+     * @param player Player to check
+     */
+    public void queueCheck(final Player player) {
+        pipeline.queue(player);
+    }
+
     public Map<RankChange, List<Requirement>> getAllRequirements(
             final Player player) {
         final Map<RankChange, List<Requirement>> result = new HashMap<RankChange, List<Requirement>>();
@@ -85,6 +97,10 @@ public class PlayerChecker {
         return result;
     }
 
+    public PlayerCheckPipeline getPipeline() {
+        return pipeline;
+    }
+
     public RankChangeBuilder getBuilder() {
         return builder;
     }
@@ -6,7 +6,6 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import me.armar.plugins.autorank.Autorank;
 import me.armar.plugins.autorank.playerchecker.requirement.Requirement;
 import me.armar.plugins.autorank.playerchecker.result.Result;
-import me.armar.plugins.autorank.util.uuid.UUIDManager;
 import org.bukkit.entity.Player;
 
 public class RankChange {
@@ -32,7 +31,7 @@ public class RankChange {
 
         if (checkRequirements(player)) {
 
-            final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+            final UUID uuid = player.getUniqueId();
 
             // Apply all 'main' results
             // Player already got this rank
@@ -60,7 +59,7 @@ public class RankChange {
     public boolean checkRequirements(final Player player) {
         boolean result = true;
 
-        final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+        final UUID uuid = player.getUniqueId();
 
         // Player already got this rank
         if (plugin.getRequirementHandler().hasCompletedRank(uuid, rankFrom)) {
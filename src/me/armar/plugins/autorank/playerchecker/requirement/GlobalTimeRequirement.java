@@ -6,7 +6,6 @@ import java.util.UUID;
 import me.armar.plugins.autorank.language.Lang;
 import me.armar.plugins.autorank.util.AutorankTools;
 import me.armar.plugins.autorank.util.AutorankTools.Time;
-import me.armar.plugins.autorank.util.uuid.UUIDManager;
 import org.bukkit.entity.Player;
 
 /**
@@ -38,7 +37,7 @@ public class GlobalTimeRequirement extends Requirement {
         String progress = "";
 
         final int playtime = getAutorank().getPlaytimes().getGlobalTime(
-                UUIDManager.getUUIDFromPlayer(player.getName()));
+                player.getUniqueId());
 
         progress = AutorankTools
                 .makeProgressString(times, "min", playtime + "");
@@ -47,7 +46,7 @@ public class GlobalTimeRequirement extends Requirement {
 
     @Override
     public boolean meetsRequirement(final Player player) {
-        final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+        final UUID uuid = player.getUniqueId();
 
         final double playtime = this.getAutorank().getPlaytimes()
                 .getGlobalTime(uuid);
@@ -100,6 +100,17 @@ public abstract class Requirement {
                 uuid);
     }
 
+    /**
+     * Check if the requirement is completed already by an online player.
+     *
+     * @param reqID Requirement id.
+     * @param player Player to check for
+     * @return true if completed, false otherwise.
+     */
+    public final boolean isCompleted(final int reqID, final Player player) {
+        return isCompleted(reqID, player.getUniqueId());
+    }
+
     /**
      * Is this an optional requirement? (Not a main requirement)
      *
@@ -114,7 +125,10 @@ public abstract class Requirement {
      * complete. It should always contain the following line:
      *
      * <p>
-     * if (isCompleted(getReqId(), player.getName())) { return true; }
+     * if (isCompleted(getReqId(), player)) { return true; }
+     * <p>
+     * Use {@link Player#getUniqueId()} when the UUID of the player is needed, never look it up by
+     * name.
      *
      * @param player Player to check for
      * @return true if it meets the requirements; false otherwise
@@ -34,7 +34,7 @@ public class TimeRequirement extends Requirement {
         String progress = "";
 
         final int playtime = (getAutorank().getPlaytimes().getTimeOfPlayer(
-                player.getName()) / 60);
+                player) / 60);
 
         /*for (int i=0;i<times.size();i++) {
          int time = times.get(i);
@@ -56,7 +56,7 @@ public class TimeRequirement extends Requirement {
         // Use getTimeOf so that when switched to another time, it'll still work.
         // getTimeOfPlayer() is in seconds, so convert.
         final double playtime = this.getAutorank().getPlaytimes()
-                .getTimeOfPlayer(player.getName()) / 60;
+                .getTimeOfPlayer(player) / 60;
 
         for (final int time : times) {
             if (time != -1 && time <= playtime) {
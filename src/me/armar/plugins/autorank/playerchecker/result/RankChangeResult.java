@@ -3,7 +3,6 @@ package me.armar.plugins.autorank.playerchecker.result;
 import java.util.ArrayList;
 import java.util.UUID;
 import me.armar.plugins.autorank.api.events.PlayerPromoteEvent;
-import me.armar.plugins.autorank.util.uuid.UUIDManager;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
@@ -45,7 +44,7 @@ public class RankChangeResult extends Result {
             return false;
         }
 
-        final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+        final UUID uuid = player.getUniqueId();
 
         // When rank is changed: reset progress and update last known group
         getAutorank().getRequirementHandler().setPlayerProgress(uuid,
@@ -1,28 +1,42 @@
 package me.armar.plugins.autorank.playtimes;
 
+import java.io.File;
 import java.sql.SQLException;
 import java.util.Map.Entry;
 import java.util.*;
 import me.armar.plugins.autorank.Autorank;
+import me.armar.plugins.autorank.config.ConfigHandler.AccrualMode;
+import me.armar.plugins.autorank.config.ConfigHandler.StorageType;
 import me.armar.plugins.autorank.data.SimpleYamlConfiguration;
 import me.armar.plugins.autorank.hooks.DependencyManager.dependency;
 import me.armar.plugins.autorank.hooks.ontimeapi.OnTimeHandler;
 import me.armar.plugins.autorank.hooks.statsapi.StatsAPIHandler;
+import me.armar.plugins.autorank.leaderboard.LeaderboardIndex;
+import me.armar.plugins.autorank.playtimes.storage.JournalPlaytimesStorage;
+import me.armar.plugins.autorank.playtimes.storage.PlaytimesStorage;
+import me.armar.plugins.autorank.playtimes.storage.SQLitePlaytimesStorage;
+import me.armar.plugins.autorank.playtimes.storage.YamlPlaytimesStorage;
 import me.armar.plugins.autorank.statsmanager.StatsPlugin;
 import me.armar.plugins.autorank.statsmanager.handlers.StatsHandler;
 import me.armar.plugins.autorank.util.uuid.UUIDManager;
+import org.bukkit.entity.Player;
 
 public class Playtimes {
 
     public static int INTERVAL_MINUTES = 5;
 
-    private final SimpleYamlConfiguration data;
     private final Autorank plugin;
+    private final PlaytimesStorage storage;
     private final PlaytimesSave save;
+    // All local times, sorted for the leaderboard
+    private final LeaderboardIndex leaderboardIndex = new LeaderboardIndex();
     // Used to store what plugin Autorank uses for checking the time
     private final dependency timePlugin;
 
-    private final PlaytimesUpdate update;
+    // Only one of these is used, depending on the time accrual mode.
+    private PlaytimesUpdate update;
+    private StaggeredPlaytimesUpdate staggeredUpdate;
+    private PlaytimesSessions sessions;
 
     public Playtimes(final Autorank plugin) {
         this.plugin = plugin;
@@ -32,20 +46,92 @@ public class Playtimes {
         plugin.getLogger().info(
                 "Interval check every " + INTERVAL_MINUTES + " minutes.");
 
-        this.data = new SimpleYamlConfiguration(plugin, "Data.yml", null,
-                "Data");
+        // Storage that is actually used, Autorank.db may not have been opened.
+        final String storageName;
+
+        if (plugin.getEmbeddedDatabase() != null) {
+            final SQLitePlaytimesStorage sqliteStorage = new SQLitePlaytimesStorage(
+                    plugin.getEmbeddedDatabase());
+
+            // First time using the database, so import the old Data.yml.
+            if (sqliteStorage.isEmpty() && getDataFile().exists()) {
+                plugin.getLogger().info(
+                        "Importing Data.yml into Autorank.db...");
+                sqliteStorage.importData(getData());
+            }
+
+            this.storage = sqliteStorage;
+            storageName = "sqlite";
+        } else if (plugin.getConfigHandler().getDataStorageType() == StorageType.JOURNAL) {
+            final JournalPlaytimesStorage journalStorage = new JournalPlaytimesStorage(
+                    plugin);
+
+            // First time using the journal, so import the old Data.yml.
+            if (journalStorage.isEmpty() && getDataFile().exists()) {
+                plugin.getLogger().info(
+                        "Importing Data.yml into playtimes journal...");
+                journalStorage.importData(getData());
+            }
+
+            this.storage = journalStorage;
+            storageName = "journal";
+        } else {
+            this.storage = new YamlPlaytimesStorage(plugin, getData());
+            storageName = "yaml";
+        }
+
+        plugin.getLogger().info(
+                "Storing playtimes using " + storageName + " storage.");
+
+        rebuildLeaderboardIndex();
+
         this.save = new PlaytimesSave(this);
-        this.update = new PlaytimesUpdate(this, plugin);
 
         // Run save task every 30 seconds
         plugin.getServer().getScheduler()
                 .runTaskTimerAsynchronously(plugin, save, 20L, 1200L);
 
-        // Run update timer every x minutes
-        plugin.getServer()
-                .getScheduler()
-                .runTaskTimerAsynchronously(plugin, update,
-                        INTERVAL_MINUTES * 20 * 60, INTERVAL_MINUTES * 20 * 60);
+        if (plugin.getConfigHandler().getTimeAccrualMode() == AccrualMode.SESSION) {
+            this.sessions = new PlaytimesSessions(this, plugin);
+
+            // Players that are already online (after a reload)
+            for (final Player player : plugin.getServer().getOnlinePlayers()) {
+                sessions.startSession(player);
+            }
+
+            plugin.getLogger().info("Adding time to players per session.");
+
+            // Update sessions every few seconds, AFK checks need the main thread.
+            plugin.getServer()
+                    .getScheduler()
+                    .runTaskTimer(plugin, sessions,
+                            PlaytimesSessions.UPDATE_TICKS,
+                            PlaytimesSessions.UPDATE_TICKS);
+        } else {
+            this.update = new PlaytimesUpdate(this, plugin);
+
+            if (plugin.getConfigHandler().useStaggeredIntervalCheck()) {
+                this.staggeredUpdate = new StaggeredPlaytimesUpdate(update,
+                        plugin);
+
+                plugin.getLogger().info(
+                        "Spreading interval check over the interval.");
+
+                // Handle a part of the players every second, on the main thread.
+                plugin.getServer()
+                        .getScheduler()
+                        .runTaskTimer(plugin, staggeredUpdate,
+                                StaggeredPlaytimesUpdate.RUN_TICKS,
+                                StaggeredPlaytimesUpdate.RUN_TICKS);
+            } else {
+                // Run update timer every x minutes
+                plugin.getServer()
+                        .getScheduler()
+                        .runTaskTimerAsynchronously(plugin, update,
+                                INTERVAL_MINUTES * 20 * 60,
+                                INTERVAL_MINUTES * 20 * 60);
+            }
+        }
 
         timePlugin = plugin.getConfigHandler().useTimeOf();
     }
@@ -57,23 +143,13 @@ public class Playtimes {
      * @return Amount of records removed
      */
     public int archive(final int minimum) {
-        // Keep a counter of archived items
-        int counter = 0;
-
-        for (final UUID uuid : getUUIDKeys()) {
-            final int time = this.getLocalTime(uuid);
+        // Remove records
+        final int archived = storage.removeTimesBelow(minimum);
 
-            // Found a record to be archived
-            if (time < minimum) {
-                counter++;
-
-                // Remove record
-                data.set(uuid.toString(), null);
-            }
-        }
+        rebuildLeaderboardIndex();
 
         save();
-        return counter;
+        return archived;
     }
 
     /**
@@ -96,6 +172,8 @@ public class Playtimes {
                         // First archive all names below 1
                         archive(1);
 
+                        final SimpleYamlConfiguration data = getData();
+
                         final Set<String> records = data.getKeys(false);
 
                         final int size = records.size();
@@ -138,7 +216,12 @@ public class Playtimes {
                             data.set(uuid.toString(), minutesPlayed);
                         }
 
-                        save();
+                        data.save();
+
+                        // Storages do not read the Data.yml again by themselves.
+                        storage.importData(data);
+
+                        rebuildLeaderboardIndex();
 
                         plugin.getLogger().info(
                                 "Converted data.yml to UUID format");
@@ -147,10 +230,55 @@ public class Playtimes {
                 });
     }
 
+    /**
+     * Persist all changes and close the storage. <br>
+     * Playtimes cannot be used after this has been called.
+     */
+    public void close() {
+        if (sessions != null) {
+            // Add the time of the sessions that are still running.
+            sessions.endAllSessions();
+        }
+
+        storage.close();
+    }
+
+    /**
+     * Write all local times to the Data.yml.
+     */
+    public void exportData() {
+        storage.exportData(getData());
+    }
+
+    /**
+     * Call the visitor for every local time (in minutes) that is stored. <br>
+     * Use this instead of {@link #getUUIDKeys()} when walking over all players, as it does not
+     * create a UUID for every player.
+     *
+     * @param visitor Visitor to call
+     */
+    public void forEachLocalTime(final PlaytimesTable.Visitor visitor) {
+        storage.forEach(visitor);
+    }
+
     public Autorank getAutorank() {
         return plugin;
     }
 
+    /**
+     * Load the Data.yml file. It is not kept in memory, so only use it to import, export or
+     * convert times.
+     *
+     * @return Data.yml as a {@link SimpleYamlConfiguration}
+     */
+    private SimpleYamlConfiguration getData() {
+        return new SimpleYamlConfiguration(plugin, "Data.yml", null, "Data");
+    }
+
+    private File getDataFile() {
+        return new File(plugin.getDataFolder(), "Data.yml");
+    }
+
     private String getDurationString(int seconds) {
 
         final int hours = seconds / 3600;
@@ -215,7 +343,7 @@ public class Playtimes {
     }
 
     /**
-     * Returns playtime on this particular server It reads from the local data.yml
+     * Returns playtime on this particular server It reads from the local playtimes storage
      *
      * @param uuid UUID to get the time for
      * @return play time of that account or -1 if not found.
@@ -224,7 +352,7 @@ public class Playtimes {
         if (uuid == null) {
             return -1;
         }
-        return data.getInt(uuid.toString(), 0);
+        return storage.getTime(uuid);
     }
 
     public List<String> getPlayerKeys() {
@@ -241,21 +369,44 @@ public class Playtimes {
         return playerNames;
     }
 
+    /**
+     * Get the time of an online player, without looking up its UUID. <br>
+     * See {@link #getTimeOfPlayer(UUID, String)}.
+     *
+     * @param player Player to get the time for
+     * @return play time of given player or 0 if not found.
+     */
+    public int getTimeOfPlayer(final Player player) {
+        return getTimeOfPlayer(player.getUniqueId(), player.getName());
+    }
+
+    /**
+     * Get the time of a player by name (for example, given as a command argument). <br>
+     * The UUID of the player is looked up, use {@link #getTimeOfPlayer(Player)} for online
+     * players. Players that were never stored have no time, so they are not looked up at
+     * Mojang. See {@link #getTimeOfPlayer(UUID, String)}.
+     *
+     * @param playerName Player to get the time for
+     * @return play time of given player or 0 if not found.
+     */
+    public int getTimeOfPlayer(final String playerName) {
+        return getTimeOfPlayer(UUIDManager.getUUIDFromKnownPlayer(playerName),
+                playerName);
+    }
+
     /**
      * Get the time of a player. <br>
      * This depends on what plugin is used to get the time from. <br>
      * Time is seconds.
      *
-     * @param playerName Player to get the time for
+     * @param uuid UUID of the player, may be null if it is unknown
+     * @param playerName Name of the player (OnTime stores time by name)
      * @return play time of given player or 0 if not found.
      */
-    public int getTimeOfPlayer(final String playerName) {
+    public int getTimeOfPlayer(final UUID uuid, final String playerName) {
 
         int playTime = 0;
 
-        UUID uuid = null;
-        uuid = UUIDManager.getUUIDFromPlayer(playerName);
-
         // Determine what plugin to use for getting the time.
         if (timePlugin.equals(dependency.STATS)) {
             final StatsPlugin stats = plugin.getHookedStatsPlugin();
@@ -272,7 +423,7 @@ public class Playtimes {
                 }
 
                 // Stats not found, using Autorank's system.
-                playTime = data.getInt(uuid.toString(), 0) * 60;
+                playTime = getLocalTime(uuid) * 60;
             }
         } else if (timePlugin.equals(dependency.ONTIME)) {
             playTime = ((OnTimeHandler) plugin.getDependencyManager()
@@ -281,48 +432,59 @@ public class Playtimes {
             playTime = playTime * 60;
         } else {
 
-            uuid = UUIDManager.getUUIDFromPlayer(playerName);
-
             if (uuid == null) {
                 return playTime;
             }
 
             // Use internal system of Autorank.
-            playTime = data.getInt(uuid.toString(), 0) * 60;
+            playTime = getLocalTime(uuid) * 60;
         }
 
         return playTime;
     }
 
-    public List<UUID> getUUIDKeys() {
-
-        final List<UUID> uuids = new ArrayList<UUID>();
+    /**
+     * Get the staggered interval check.
+     *
+     * @return the staggered check or null if the interval check is not staggered.
+     */
+    public StaggeredPlaytimesUpdate getStaggeredUpdate() {
+        return staggeredUpdate;
+    }
 
-        for (final String uuidString : data.getKeys(false)) {
-            UUID uuid = null;
-            try {
-                uuid = UUID.fromString(uuidString);
-            } catch (final IllegalArgumentException e) {
-                /*plugin.getLogger().severe(
-                 "Player '" + uuidString + "' is not converted yet!");*/
-                continue;
-            }
+    /**
+     * Get the local times of all players, sorted for the leaderboard. It is kept up to date when
+     * times change.
+     *
+     * @return index of all local times
+     */
+    public LeaderboardIndex getLeaderboardIndex() {
+        return leaderboardIndex;
+    }
 
-            // Invalid uuid
-            if (uuid == null) {
-                /*plugin.getLogger().severe(
-                 "Player '" + uuidString + "' is not converted yet!");*/
-                continue;
-            }
+    public List<UUID> getUUIDKeys() {
+        return storage.getUUIDs();
+    }
 
-            uuids.add(uuid);
-        }
+    public void importData() {
+        storage.importData(getData());
 
-        return uuids;
+        rebuildLeaderboardIndex();
     }
 
-    public void importData() {
-        data.reload();
+    /**
+     * Check whether a player is excluded from getting time. <br>
+     * Players with 'autorank.timeexclude' are excluded, unless they have a wildcard permission
+     * ('*').
+     *
+     * @param player Player to check
+     * @return true if the player does not get time; false otherwise.
+     */
+    public boolean isTimeExcluded(final Player player) {
+        // OP's should also get time added.
+        // When a player has a wildcard permission ('*') it should still update.
+        return !player.hasPermission("autorank.rsefrxsgtse")
+                && player.hasPermission("autorank.timeexclude");
     }
 
     public boolean isMySQLEnabled() {
@@ -342,37 +504,59 @@ public class Playtimes {
             }
         }
 
-        final int time = getGlobalTime(uuid);
-
-        if (time >= 0) {
-            try {
-                setGlobalTime(uuid, time + timeDifference);
-            } catch (final SQLException e) {
-                e.printStackTrace();
-                return;
-            }
-        } else {
-            // First entry.
-            try {
-                setGlobalTime(uuid, timeDifference);
-            } catch (final SQLException e) {
-                e.printStackTrace();
-            }
+        if (uuid == null) {
+            return;
         }
+
+        // Written to the database later on, together with the time of other players.
+        plugin.getMySQLWrapper().addGlobalTime(uuid, timeDifference);
     }
 
     public void modifyLocalTime(final UUID uuid, final int timeDifference)
             throws IllegalArgumentException {
 
-        final int time = this.getLocalTime(uuid);
+        if (uuid == null) {
+            return;
+        }
+
+        // Keep the index in the same order as the storage.
+        synchronized (leaderboardIndex) {
+            leaderboardIndex.set(uuid, storage.addTime(uuid, timeDifference));
+        }
+    }
+
+    /**
+     * End the session of a player. Does nothing when time is not added per session.
+     *
+     * @param player Player that quit
+     */
+    public void endSession(final Player player) {
+        if (sessions != null) {
+            sessions.endSession(player);
+        }
+    }
+
+    /**
+     * Fill the leaderboard index with all stored times again. Used after a lot of times changed
+     * at once (importing, archiving).
+     */
+    private void rebuildLeaderboardIndex() {
+        synchronized (leaderboardIndex) {
+            leaderboardIndex.clear();
+
+            storage.forEach(new PlaytimesTable.Visitor() {
 
-        if (time >= 0) {
-            setLocalTime(uuid, time + timeDifference);
+                @Override
+                public void visit(final long mostSigBits,
+                        final long leastSigBits, final int time) {
+                    leaderboardIndex.set(mostSigBits, leastSigBits, time);
+                }
+            });
         }
     }
 
     public void save() {
-        data.save();
+        storage.save();
     }
 
     public void setGlobalTime(final UUID uuid, final int time)
@@ -387,6 +571,20 @@ public class Playtimes {
     }
 
     public void setLocalTime(final UUID uuid, final int time) {
-        data.set(uuid.toString(), time);
+        synchronized (leaderboardIndex) {
+            storage.setTime(uuid, time);
+            leaderboardIndex.set(uuid, time);
+        }
+    }
+
+    /**
+     * Start the session of a player. Does nothing when time is not added per session.
+     *
+     * @param player Player that joined
+     */
+    public void startSession(final Player player) {
+        if (sessions != null) {
+            sessions.startSession(player);
+        }
     }
 }
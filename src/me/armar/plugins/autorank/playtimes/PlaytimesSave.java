@@ -19,7 +19,7 @@ public class PlaytimesSave implements Runnable {
     @Override
     public void run() {
 
-        playtimes.getAutorank().debugMessage("Saving data.yml...");
+        playtimes.getAutorank().debugMessage("Saving playtimes...");
 
         playtimes.save();
     }
@@ -0,0 +1,238 @@
+package me.armar.plugins.autorank.playtimes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import me.armar.plugins.autorank.Autorank;
+import org.bukkit.entity.Player;
+
+/**
+ * Keeps track of the sessions of online players and adds the time they have actually played. <br>
+ * A session starts when a player joins and ends when the player quits. While a player is AFK (or
+ * excluded from getting time), no time is counted. Played time is counted in milliseconds and
+ * added to the player's time minute by minute, so every player gets time (and is checked) at a
+ * different moment instead of everyone at once. When a player quits, the last part of a minute is
+ * dropped, so nothing has to be remembered of players that left (and rejoining cannot be used to
+ * get time that was not played).
+ * <p>
+ * Sessions are updated on the main thread, as AFK and permission checks are not thread-safe. The
+ * time that was played is added asynchronously.
+ * <p>
+ * This is used instead of {@link PlaytimesUpdate} when 'time accrual' is set to 'session'.
+ */
+public class PlaytimesSessions implements Runnable {
+
+    private static class Session {
+
+        private final Player player;
+        private final UUID uuid;
+
+        // Moment (in ms) since when time is counted, or -1 if time is not counted (AFK).
+        private long activeSince;
+        // Played time (in ms) that has not been added yet.
+        private long pendingMillis;
+
+        private Session(final Player player, final UUID uuid, final long now) {
+            this.player = player;
+            this.uuid = uuid;
+            this.activeSince = now;
+        }
+
+        /**
+         * Count the time played since the last call.
+         */
+        private void accrue(final long now) {
+            if (activeSince >= 0) {
+                pendingMillis += now - activeSince;
+                activeSince = now;
+            }
+        }
+
+        /**
+         * Take the whole minutes out of the pending time.
+         */
+        private int takeMinutes() {
+            final int minutes = (int) (pendingMillis / MILLIS_PER_MINUTE);
+
+            pendingMillis -= minutes * MILLIS_PER_MINUTE;
+
+            return minutes;
+        }
+    }
+
+    private static final long MILLIS_PER_MINUTE = 60000L;
+
+    /**
+     * How often (in ticks) sessions are updated.
+     */
+    public static final long UPDATE_TICKS = 100L;
+
+    private static long now() {
+        // Not affected by changes of the system clock.
+        return System.nanoTime() / 1000000L;
+    }
+
+    private final Playtimes playtimes;
+    private final Autorank plugin;
+
+    private final Map<UUID, Session> sessions = new HashMap<UUID, Session>();
+
+    public PlaytimesSessions(final Playtimes playtimes, final Autorank plugin) {
+        this.playtimes = playtimes;
+        this.plugin = plugin;
+    }
+
+    /**
+     * Add minutes to the local (and global) time of a player.
+     *
+     * @param uuid UUID of the player
+     * @param minutes Minutes to add
+     */
+    private void credit(final UUID uuid, final int minutes) {
+        if (minutes <= 0) {
+            return;
+        }
+
+        playtimes.modifyLocalTime(uuid, minutes);
+
+        // Global time is collected and written to the database in batches.
+        if (playtimes.isMySQLEnabled()) {
+            playtimes.modifyGlobalTime(uuid, minutes);
+        }
+    }
+
+    /**
+     * End the sessions of all players and add their time. <br>
+     * This is used when Autorank is disabled.
+     */
+    public void endAllSessions() {
+        final long now = now();
+        final Map<UUID, Integer> minutes = new HashMap<UUID, Integer>();
+
+        synchronized (this) {
+            for (final Session session : sessions.values()) {
+                session.accrue(now);
+                minutes.put(session.uuid, session.takeMinutes());
+            }
+
+            sessions.clear();
+        }
+
+        for (final Map.Entry<UUID, Integer> entry : minutes.entrySet()) {
+            credit(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * End the session of a player and add the time that was not added yet. <br>
+     * Should be called when a player quits.
+     *
+     * @param player Player that quit
+     */
+    public void endSession(final Player player) {
+        final Session session;
+        final int minutes;
+
+        synchronized (this) {
+            session = sessions.remove(player.getUniqueId());
+
+            if (session == null) {
+                return;
+            }
+
+            session.accrue(now());
+            minutes = session.takeMinutes();
+        }
+
+        credit(session.uuid, minutes);
+    }
+
+    /**
+     * Update all sessions. Must be run on the main thread.
+     */
+    @Override
+    public void run() {
+        final List<Session> current;
+
+        synchronized (this) {
+            current = new ArrayList<Session>(sessions.values());
+        }
+
+        final List<Session> credited = new ArrayList<Session>();
+        final List<Integer> creditedMinutes = new ArrayList<Integer>();
+
+        for (final Session session : current) {
+            // Determine this outside of the lock, AFK checks go through other plugins.
+            final boolean counting = !playtimes.isTimeExcluded(session.player)
+                    && !plugin.getDependencyManager().isAFK(session.player);
+
+            final int minutes;
+
+            synchronized (this) {
+                // Player left in the meantime
+                if (sessions.get(session.uuid) != session) {
+                    continue;
+                }
+
+                final long now = now();
+
+                session.accrue(now);
+
+                if (!counting) {
+                    session.activeSince = -1;
+                } else if (session.activeSince < 0) {
+                    // Player is back, start counting from now.
+                    session.activeSince = now;
+                }
+
+                minutes = session.takeMinutes();
+            }
+
+            if (minutes > 0) {
+                credited.add(session);
+                creditedMinutes.add(minutes);
+            }
+        }
+
+        if (credited.isEmpty()) {
+            return;
+        }
+
+        // Writing the times can take a while, so do not do it on the main thread.
+        plugin.getServer().getScheduler()
+                .runTaskAsynchronously(plugin, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < credited.size(); i++) {
+                            final Session session = credited.get(i);
+
+                            credit(session.uuid, creditedMinutes.get(i));
+
+                            // Check if player meets requirements
+                            plugin.getPlayerChecker().queueCheck(
+                                    session.player);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Start a session for a player. Time will be counted from now on. <br>
+     * Should be called when a player joins.
+     *
+     * @param player Player that joined
+     */
+    public synchronized void startSession(final Player player) {
+        // Same UUID as the one PlayerJoinListener puts in the UUID storage.
+        final UUID uuid = player.getUniqueId();
+
+        if (sessions.containsKey(uuid)) {
+            return;
+        }
+
+        sessions.put(uuid, new Session(player, uuid, now()));
+    }
+}
@@ -0,0 +1,307 @@
+package me.armar.plugins.autorank.playtimes;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * An in-memory table that maps UUIDs to play times. <br>
+ * UUIDs are stored as their two long halves and times as plain ints, so no objects are created
+ * for lookups, updates or when walking over all entries. This keeps memory usage low, even with
+ * hundreds of thousands of players.
+ * <p>
+ * The table uses open addressing with linear probing. It is not thread-safe; the owner has to
+ * take care of locking.
+ */
+public class PlaytimesTable {
+
+    /**
+     * Used to walk over all entries of a {@link PlaytimesTable}.
+     */
+    public interface Visitor {
+
+        /**
+         * Called once for every entry in the table.
+         *
+         * @param mostSigBits Most significant bits of the UUID
+         * @param leastSigBits Least significant bits of the UUID
+         * @param time Time stored for the UUID
+         */
+        public void visit(long mostSigBits, long leastSigBits, int time);
+    }
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static int hash(final long mostSigBits, final long leastSigBits) {
+        // Mix both halves (MurmurHash3 finalizer), UUIDs of the same version share bits.
+        long h = mostSigBits ^ (leastSigBits * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private int[] times;
+    private boolean[] used;
+
+    private int mask;
+    private int size;
+
+    public PlaytimesTable() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create a table that can hold the given amount of entries without growing.
+     *
+     * @param expectedSize Expected amount of entries
+     */
+    public PlaytimesTable(final int expectedSize) {
+        int capacity = MIN_CAPACITY;
+
+        // Keep the load factor below 0.75
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+
+        allocate(capacity);
+    }
+
+    /**
+     * Add time to an entry. When there is no entry yet, it starts at 0.
+     *
+     * @param uuid UUID of the entry
+     * @param timeDifference Time to add
+     * @return the new time of the entry
+     */
+    public int add(final UUID uuid, final int timeDifference) {
+        return add(uuid.getMostSignificantBits(),
+                uuid.getLeastSignificantBits(), timeDifference);
+    }
+
+    /**
+     * Add time to an entry. When there is no entry yet, it starts at 0.
+     *
+     * @param most Most significant bits of the UUID
+     * @param least Least significant bits of the UUID
+     * @param timeDifference Time to add
+     * @return the new time of the entry
+     */
+    public int add(final long most, final long least, final int timeDifference) {
+        final int slot = findSlot(most, least);
+
+        if (used[slot]) {
+            times[slot] += timeDifference;
+            return times[slot];
+        }
+
+        insert(slot, most, least, timeDifference);
+        return timeDifference;
+    }
+
+    private void allocate(final int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        times = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    public boolean contains(final long most, final long least) {
+        return used[findSlot(most, least)];
+    }
+
+    public boolean contains(final UUID uuid) {
+        return contains(uuid.getMostSignificantBits(),
+                uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Create a copy of this table. Changes to the copy do not affect this table.
+     *
+     * @return a copy of this table
+     */
+    public PlaytimesTable copy() {
+        final PlaytimesTable copy = new PlaytimesTable();
+
+        copy.mostSigBits = mostSigBits.clone();
+        copy.leastSigBits = leastSigBits.clone();
+        copy.times = times.clone();
+        copy.used = used.clone();
+        copy.mask = mask;
+        copy.size = size;
+
+        return copy;
+    }
+
+    /**
+     * Find the slot of an entry, or the empty slot where it should be inserted.
+     */
+    private int findSlot(final long most, final long least) {
+        int slot = hash(most, least) & mask;
+
+        while (used[slot]
+                && (mostSigBits[slot] != most || leastSigBits[slot] != least)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Call the visitor for every entry in this table. <br>
+     * The table must not be changed while doing this.
+     *
+     * @param visitor Visitor to call
+     */
+    public void forEach(final Visitor visitor) {
+        for (int slot = 0; slot < used.length; slot++) {
+            if (used[slot]) {
+                visitor.visit(mostSigBits[slot], leastSigBits[slot],
+                        times[slot]);
+            }
+        }
+    }
+
+    /**
+     * Get the time of an entry.
+     *
+     * @param most Most significant bits of the UUID
+     * @param least Least significant bits of the UUID
+     * @param defaultValue Value to return when there is no entry
+     * @return time of the entry or the default value if there is none.
+     */
+    public int get(final long most, final long least, final int defaultValue) {
+        final int slot = findSlot(most, least);
+
+        return used[slot] ? times[slot] : defaultValue;
+    }
+
+    public int get(final UUID uuid, final int defaultValue) {
+        return get(uuid.getMostSignificantBits(),
+                uuid.getLeastSignificantBits(), defaultValue);
+    }
+
+    private void insert(int slot, final long most, final long least,
+            final int time) {
+        if ((size + 1) > (used.length * 3 / 4)) {
+            resize(used.length << 1);
+            slot = findSlot(most, least);
+        }
+
+        mostSigBits[slot] = most;
+        leastSigBits[slot] = least;
+        times[slot] = time;
+        used[slot] = true;
+        size++;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Set the time of an entry.
+     *
+     * @param most Most significant bits of the UUID
+     * @param least Least significant bits of the UUID
+     * @param time Time to set
+     */
+    public void put(final long most, final long least, final int time) {
+        final int slot = findSlot(most, least);
+
+        if (used[slot]) {
+            times[slot] = time;
+        } else {
+            insert(slot, most, least, time);
+        }
+    }
+
+    public void put(final UUID uuid, final int time) {
+        put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(),
+                time);
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param most Most significant bits of the UUID
+     * @param least Least significant bits of the UUID
+     * @return true if there was an entry; false otherwise.
+     */
+    public boolean remove(final long most, final long least) {
+        int slot = findSlot(most, least);
+
+        if (!used[slot]) {
+            return false;
+        }
+
+        // Shift following entries back, so no lookup chain is broken.
+        int next = slot;
+
+        while (true) {
+            next = (next + 1) & mask;
+
+            if (!used[next]) {
+                break;
+            }
+
+            final int home = hash(mostSigBits[next], leastSigBits[next]) & mask;
+
+            // Entry can only move to the free slot if that slot lies between its home and itself.
+            final boolean canMove = slot <= next ? (home <= slot || home > next)
+                    : (home <= slot && home > next);
+
+            if (canMove) {
+                mostSigBits[slot] = mostSigBits[next];
+                leastSigBits[slot] = leastSigBits[next];
+                times[slot] = times[next];
+                slot = next;
+            }
+        }
+
+        used[slot] = false;
+        size--;
+
+        return true;
+    }
+
+    public boolean remove(final UUID uuid) {
+        return remove(uuid.getMostSignificantBits(),
+                uuid.getLeastSignificantBits());
+    }
+
+    private void resize(final int capacity) {
+        final long[] oldMost = mostSigBits;
+        final long[] oldLeast = leastSigBits;
+        final int[] oldTimes = times;
+        final boolean[] oldUsed = used;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                final int slot = findSlot(oldMost[i], oldLeast[i]);
+
+                mostSigBits[slot] = oldMost[i];
+                leastSigBits[slot] = oldLeast[i];
+                times[slot] = oldTimes[i];
+                used[slot] = true;
+                size++;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -3,7 +3,6 @@ package me.armar.plugins.autorank.playtimes;
 import java.util.UUID;
 import me.armar.plugins.autorank.Autorank;
 import me.armar.plugins.autorank.hooks.DependencyManager;
-import me.armar.plugins.autorank.util.uuid.UUIDManager;
 import org.bukkit.entity.Player;
 
 /*
@@ -28,35 +27,56 @@ public class PlaytimesUpdate implements Runnable {
         updateMinutesPlayed();
     }
 
-    private void updateMinutesPlayed(final Player player) {
-        // Changed this so it is readable ;)
-        // OP's should also get time added.
-        // When a player has a wildcard permission ('*') it should still update.
-
-        if (player.hasPermission("autorank.rsefrxsgtse")
-                || !player.hasPermission("autorank.timeexclude")) {
-
-            final DependencyManager depManager = plugin.getDependencyManager();
-
-            // Check to see if player is afk
-            if (depManager.isAFK(player)) {
-                return;
-            }
-
-            final UUID uuid = UUIDManager.getUUIDFromPlayer(player.getName());
+    /**
+     * Add the interval time to a player and check the player. <br>
+     * Nothing happens when the player is AFK or excluded from getting time.
+     *
+     * @param player Player to update
+     */
+    void updateMinutesPlayed(final Player player) {
+        if (shouldGetTime(player)) {
+            addIntervalTime(player);
+        }
+    }
 
-            // Modify local time
-            playtimes.modifyLocalTime(uuid, Playtimes.INTERVAL_MINUTES);
+    /**
+     * Check whether a player gets time this interval, i.e. is not AFK and not excluded from
+     * getting time. <br>
+     * This goes through permissions and other plugins, so call it on the main thread if possible.
+     *
+     * @param player Player to check
+     * @return true if the player gets time; false otherwise.
+     */
+    boolean shouldGetTime(final Player player) {
+        if (playtimes.isTimeExcluded(player)) {
+            return false;
+        }
 
-            // Modify global time
-            if (playtimes.isMySQLEnabled()) {
-                playtimes.modifyGlobalTime(uuid, Playtimes.INTERVAL_MINUTES);
-            }
+        final DependencyManager depManager = plugin.getDependencyManager();
 
-            // Check if player meets requirements
-            plugin.getPlayerChecker().checkPlayer(player);
+        // Check to see if player is afk
+        return !depManager.isAFK(player);
+    }
 
+    /**
+     * Add the interval time to a player and queue a check of the player. <br>
+     * Can be called from any thread.
+     *
+     * @param player Player to add time to
+     */
+    void addIntervalTime(final Player player) {
+        final UUID uuid = player.getUniqueId();
+
+        // Modify local time
+        playtimes.modifyLocalTime(uuid, Playtimes.INTERVAL_MINUTES);
+
+        // Modify global time
+        if (playtimes.isMySQLEnabled()) {
+            playtimes.modifyGlobalTime(uuid, Playtimes.INTERVAL_MINUTES);
         }
+
+        // Check if player meets requirements
+        plugin.getPlayerChecker().queueCheck(player);
     }
 
     @SuppressWarnings("deprecation")
@@ -73,6 +93,11 @@ public class PlaytimesUpdate implements Runnable {
 
             updateMinutesPlayed(player);
         }
+
+        // Write the global time of all players at once
+        if (playtimes.isMySQLEnabled()) {
+            plugin.getMySQLWrapper().flushGlobalTime();
+        }
     }
 
 }
@@ -0,0 +1,149 @@
+package me.armar.plugins.autorank.playtimes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import me.armar.plugins.autorank.Autorank;
+import org.bukkit.entity.Player;
+
+/**
+ * Spreads the interval check of {@link PlaytimesUpdate} over the whole interval. <br>
+ * Online players are divided into buckets (one for every second of the interval) based on the hash
+ * of their UUID. Every second one bucket is handled, so every player is still updated once per
+ * interval, but never all players at the same moment.
+ * <p>
+ * Runs on the main thread, because the AFK and permission checks are not thread-safe. A run stops
+ * when it has used up its time budget. Players that were not handled yet are handled first during
+ * the next run. Adding the time is done asynchronously and does not count towards the budget.
+ * {@link #getStatus()} shows how far behind the check is.
+ */
+public class StaggeredPlaytimesUpdate implements Runnable {
+
+    private static class Pending {
+
+        private final Player player;
+        // Moment (in ns) the player should have been handled.
+        private final long due;
+
+        private Pending(final Player player, final long due) {
+            this.player = player;
+            this.due = due;
+        }
+    }
+
+    /**
+     * How often (in ticks) a bucket is handled.
+     */
+    public static final long RUN_TICKS = 20L;
+
+    private final Autorank plugin;
+    private final PlaytimesUpdate update;
+
+    private final int buckets;
+    private final long budget;
+
+    private int currentBucket = 0;
+
+    // Players that could not be handled within the budget of a run.
+    private final Deque<Pending> backlog = new ArrayDeque<Pending>();
+
+    // Metrics
+    private volatile int backlogSize;
+    private volatile long delay;
+    private volatile long lastRunTime;
+    private volatile long longestRunTime;
+    private volatile long overBudgetRuns;
+    private volatile long handledPlayers;
+
+    public StaggeredPlaytimesUpdate(final PlaytimesUpdate update,
+            final Autorank plugin) {
+        this.update = update;
+        this.plugin = plugin;
+
+        this.buckets = Math.max(1, (int) (Playtimes.INTERVAL_MINUTES * 60 * 20 / RUN_TICKS));
+        this.budget = plugin.getConfigHandler().getIntervalCheckBudget() * 1000000L;
+    }
+
+    private int getBucket(final Player player) {
+        return (player.getUniqueId().hashCode() & Integer.MAX_VALUE) % buckets;
+    }
+
+    /**
+     * Get a human readable overview of how the staggered check is doing.
+     *
+     * @return status of the staggered check
+     */
+    public String getStatus() {
+        return "buckets: " + buckets + ", budget: " + (budget / 1000000L)
+                + " ms, players waiting: " + backlogSize + ", behind: "
+                + (delay / 1000000L) + " ms, last run: "
+                + (lastRunTime / 1000000L) + " ms, longest run: "
+                + (longestRunTime / 1000000L) + " ms, runs over budget: "
+                + overBudgetRuns + ", players handled: " + handledPlayers;
+    }
+
+    @Override
+    public synchronized void run() {
+        final long start = System.nanoTime();
+
+        for (final Player player : plugin.getServer().getOnlinePlayers()) {
+            if (getBucket(player) == currentBucket) {
+                backlog.add(new Pending(player, start));
+            }
+        }
+
+        currentBucket = (currentBucket + 1) % buckets;
+
+        int handled = 0;
+        final List<Player> getTime = new ArrayList<Player>();
+
+        while (!backlog.isEmpty()) {
+            // Always handle at least one player, so we never get stuck.
+            if (handled > 0 && System.nanoTime() - start >= budget) {
+                overBudgetRuns++;
+                break;
+            }
+
+            final Pending pending = backlog.poll();
+
+            if (!pending.player.isOnline()) {
+                continue;
+            }
+
+            if (update.shouldGetTime(pending.player)) {
+                getTime.add(pending.player);
+            }
+
+            handled++;
+        }
+
+        final long end = System.nanoTime();
+
+        if (!getTime.isEmpty()) {
+            // Writing the times can take a while, so do not do it on the main thread.
+            plugin.getServer().getScheduler()
+                    .runTaskAsynchronously(plugin, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            for (final Player player : getTime) {
+                                update.addIntervalTime(player);
+                            }
+                        }
+                    });
+        }
+
+        handledPlayers += handled;
+        lastRunTime = end - start;
+        longestRunTime = Math.max(longestRunTime, lastRunTime);
+        backlogSize = backlog.size();
+        delay = backlog.isEmpty() ? 0 : end - backlog.peek().due;
+
+        if (backlogSize > 0) {
+            plugin.debugMessage("Staggered interval check is behind: "
+                    + backlogSize + " players waiting ("
+                    + (delay / 1000000L) + " ms)");
+        }
+    }
+}
@@ -0,0 +1,681 @@
+package me.armar.plugins.autorank.playtimes.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import me.armar.plugins.autorank.Autorank;
+import me.armar.plugins.autorank.data.SimpleYamlConfiguration;
+import me.armar.plugins.autorank.playtimes.PlaytimesTable;
+
+/**
+ * Stores all local times in a binary snapshot and a journal. <br>
+ * Every change is appended to the journal as a small fixed-size record, so a save only has to
+ * flush the records written since the last save. Once the journal grows larger than the snapshot,
+ * the journal is compacted into a new snapshot.
+ * <p>
+ * Every snapshot and journal has a generation. A snapshot of generation <i>n</i> holds all times
+ * up to (but not including) journal <i>n</i>. At startup the newest snapshot that can be read is
+ * loaded and all journals of the same or a newer generation are replayed on top of it. A new
+ * snapshot is written next to the previous one, which (together with its journals) is only removed
+ * once the new one is in place. This way a crash during compaction never loses or doubles a
+ * record.
+ */
+public class JournalPlaytimesStorage implements PlaytimesStorage {
+
+    private static final String FILE_PREFIX = "Data.";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final int JOURNAL_MAGIC = 0x41524A4E;
+    private static final int SNAPSHOT_MAGIC = 0x4152534E;
+    private static final int FORMAT_VERSION = 1;
+
+    // Record operations
+    private static final byte OP_SET = 0;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    // Never compact a journal with less records than this
+    private static final int MIN_COMPACT_RECORDS = 10000;
+
+    private final Autorank plugin;
+    private final File folder;
+
+    private final PlaytimesTable times = new PlaytimesTable();
+
+    // Only one compaction can run at the same time.
+    private final Object compactLock = new Object();
+
+    // Current journal we are appending to
+    private FileOutputStream journalStream;
+    private DataOutputStream journal;
+    private long generation;
+    // Records in all journals that are not compacted yet.
+    private int journalRecords;
+
+    public JournalPlaytimesStorage(final Autorank plugin) {
+        this.plugin = plugin;
+
+        folder = plugin.getDataFolder();
+
+        load();
+    }
+
+    @Override
+    public synchronized int addTime(final UUID uuid, final int timeDifference) {
+        final int time = times.add(uuid, timeDifference);
+
+        append(OP_ADD, uuid, timeDifference);
+
+        return time;
+    }
+
+    private void append(final byte operation, final UUID uuid, final int value) {
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.writeByte(operation);
+            journal.writeLong(uuid.getMostSignificantBits());
+            journal.writeLong(uuid.getLeastSignificantBits());
+            journal.writeInt(value);
+            journalRecords++;
+        } catch (final IOException e) {
+            plugin.getLogger().log(Level.SEVERE,
+                    "Could not write to playtimes journal!", e);
+        }
+    }
+
+    private void apply(final byte operation, final long most,
+            final long least, final int value) {
+        switch (operation) {
+            case OP_SET:
+                times.put(most, least, value);
+                break;
+            case OP_ADD:
+                times.add(most, least, value);
+                break;
+            case OP_REMOVE:
+                times.remove(most, least);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void close() {
+        compact();
+
+        synchronized (this) {
+            closeJournal();
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.flush();
+            journalStream.getFD().sync();
+            journal.close();
+        } catch (final IOException e) {
+            plugin.getLogger().log(Level.SEVERE,
+                    "Could not close playtimes journal!", e);
+        }
+
+        journal = null;
+        journalStream = null;
+    }
+
+    /**
+     * Write all times to a new snapshot and remove the journals that are now part of it.
+     */
+    public void compact() {
+        synchronized (compactLock) {
+            final PlaytimesTable copy;
+            final long snapshotGeneration;
+
+            // Switch to a new journal. Everything up to here goes into the snapshot.
+            synchronized (this) {
+                closeJournal();
+
+                snapshotGeneration = generation + 1;
+                openJournal(snapshotGeneration, 0);
+
+                copy = times.copy();
+                journalRecords = 0;
+            }
+
+            if (!writeSnapshot(copy, snapshotGeneration)) {
+                // Old journals are kept, so nothing is lost.
+                return;
+            }
+
+            // The new snapshot is in place, so the previous generations are not needed anymore.
+            for (final long oldGeneration : getGenerations(SNAPSHOT_SUFFIX)) {
+                if (oldGeneration < snapshotGeneration) {
+                    getSnapshotFile(oldGeneration).delete();
+                }
+            }
+
+            for (final long oldGeneration : getGenerations(JOURNAL_SUFFIX)) {
+                if (oldGeneration < snapshotGeneration) {
+                    getJournalFile(oldGeneration).delete();
+                }
+            }
+
+            plugin.debugMessage("Compacted playtimes journal into snapshot with "
+                    + copy.size() + " records.");
+        }
+    }
+
+    @Override
+    public void exportData(final SimpleYamlConfiguration data) {
+        final PlaytimesTable copy;
+
+        synchronized (this) {
+            copy = times.copy();
+        }
+
+        copy.forEach(new PlaytimesTable.Visitor() {
+
+            @Override
+            public void visit(final long mostSigBits, final long leastSigBits,
+                    final int time) {
+                data.set(new UUID(mostSigBits, leastSigBits).toString(), time);
+            }
+        });
+
+        data.save();
+    }
+
+    @Override
+    public synchronized void forEach(final PlaytimesTable.Visitor visitor) {
+        times.forEach(visitor);
+    }
+
+    private File getJournalFile(final long journalGeneration) {
+        return new File(folder, FILE_PREFIX + journalGeneration
+                + JOURNAL_SUFFIX);
+    }
+
+    private File getSnapshotFile(final long snapshotGeneration) {
+        return new File(folder, FILE_PREFIX + snapshotGeneration
+                + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Get the generations of all journals (or snapshots) on disk, oldest first.
+     *
+     * @param suffix {@link #JOURNAL_SUFFIX} or {@link #SNAPSHOT_SUFFIX}
+     * @return a sorted list of generations
+     */
+    private List<Long> getGenerations(final String suffix) {
+        final List<Long> generations = new ArrayList<Long>();
+
+        final File[] files = folder.listFiles();
+
+        if (files == null) {
+            return generations;
+        }
+
+        for (final File file : files) {
+            final String name = file.getName();
+
+            if (!name.startsWith(FILE_PREFIX) || !name.endsWith(suffix)) {
+                continue;
+            }
+
+            try {
+                generations.add(Long.parseLong(name.substring(
+                        FILE_PREFIX.length(),
+                        name.length() - suffix.length())));
+            } catch (final NumberFormatException e) {
+                continue;
+            }
+        }
+
+        Collections.sort(generations);
+
+        return generations;
+    }
+
+    @Override
+    public synchronized int getTime(final UUID uuid) {
+        return times.get(uuid, 0);
+    }
+
+    @Override
+    public synchronized List<UUID> getUUIDs() {
+        final List<UUID> uuids = new ArrayList<UUID>(times.size());
+
+        times.forEach(new PlaytimesTable.Visitor() {
+
+            @Override
+            public void visit(final long mostSigBits, final long leastSigBits,
+                    final int time) {
+                uuids.add(new UUID(mostSigBits, leastSigBits));
+            }
+        });
+
+        return uuids;
+    }
+
+    @Override
+    public void importData(final SimpleYamlConfiguration data) {
+        data.load();
+
+        synchronized (this) {
+            for (final String key : data.getKeys(false)) {
+                UUID uuid = null;
+                try {
+                    uuid = UUID.fromString(key);
+                } catch (final IllegalArgumentException e) {
+                    // Player is not converted yet
+                    continue;
+                }
+
+                times.put(uuid, data.getInt(key, 0));
+            }
+        }
+
+        // Imported records are not journaled, so store them in a snapshot right away.
+        compact();
+    }
+
+    /**
+     * Check whether no time is stored at all.
+     *
+     * @return true if nothing is stored; false otherwise.
+     */
+    public synchronized boolean isEmpty() {
+        return times.isEmpty();
+    }
+
+    private synchronized void load() {
+        generation = readSnapshot();
+
+        long latestGeneration = generation;
+        long latestLength = -1;
+
+        for (final long journalGeneration : getGenerations(JOURNAL_SUFFIX)) {
+            final File file = getJournalFile(journalGeneration);
+
+            // Already part of the snapshot
+            if (journalGeneration < generation) {
+                file.delete();
+                continue;
+            }
+
+            latestGeneration = journalGeneration;
+            latestLength = replayJournal(file, journalGeneration);
+        }
+
+        plugin.getLogger().info(
+                "Loaded " + times.size() + " playtimes (" + journalRecords
+                + " journal records).");
+
+        generation = latestGeneration;
+
+        if (latestLength < 0) {
+            // No usable journal yet, so start a new one.
+            openJournal(generation, 0);
+        } else {
+            openJournal(generation, latestLength);
+        }
+    }
+
+    /**
+     * Open the journal of the given generation for appending. <br>
+     * When validLength is 0, a new journal is created. Otherwise, anything after validLength
+     * (e.g. a record that was only half written during a crash) is cut off.
+     *
+     * @param journalGeneration Generation of the journal
+     * @param validLength Length of the valid part of the journal
+     */
+    private void openJournal(final long journalGeneration,
+            final long validLength) {
+        final File file = getJournalFile(journalGeneration);
+
+        try {
+            if (validLength > 0) {
+                final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(validLength);
+                } finally {
+                    raf.close();
+                }
+            }
+
+            journalStream = new FileOutputStream(file, validLength > 0);
+            journal = new DataOutputStream(new BufferedOutputStream(
+                    journalStream));
+
+            if (validLength <= 0) {
+                journal.writeInt(JOURNAL_MAGIC);
+                journal.writeInt(FORMAT_VERSION);
+                journal.writeLong(journalGeneration);
+                journal.flush();
+            }
+
+            generation = journalGeneration;
+        } catch (final IOException e) {
+            plugin.getLogger().log(Level.SEVERE,
+                    "Could not open playtimes journal " + file.getName()
+                    + "! Changes will not be saved.", e);
+            journal = null;
+            journalStream = null;
+        }
+    }
+
+    /**
+     * Load the newest snapshot that can be read into memory. Snapshots that cannot be read are
+     * renamed, older snapshots are removed.
+     *
+     * @return generation of the snapshot, or 0 if no snapshot exists.
+     */
+    private long readSnapshot() {
+        final List<Long> generations = getGenerations(SNAPSHOT_SUFFIX);
+
+        // Newest first
+        Collections.reverse(generations);
+
+        long loaded = 0;
+
+        for (final long snapshotGeneration : generations) {
+            final File file = getSnapshotFile(snapshotGeneration);
+
+            if (loaded > 0) {
+                file.delete();
+            } else if (readSnapshot(file, snapshotGeneration)) {
+                loaded = snapshotGeneration;
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Load a snapshot into memory. When it cannot be read, it is renamed to *.corrupt.
+     *
+     * @param snapshotFile Snapshot to read
+     * @param snapshotGeneration Generation the snapshot should have
+     * @return true if it was loaded; false otherwise.
+     */
+    private boolean readSnapshot(final File snapshotFile,
+            final long snapshotGeneration) {
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(snapshotFile)));
+
+            if (in.readInt() != SNAPSHOT_MAGIC
+                    || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown snapshot format");
+            }
+
+            if (in.readLong() != snapshotGeneration) {
+                throw new IOException("Snapshot has the wrong generation");
+            }
+
+            final int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                final long most = in.readLong();
+                final long least = in.readLong();
+                times.put(most, least, in.readInt());
+            }
+
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Snapshot is incomplete");
+            }
+
+            return true;
+        } catch (final IOException e) {
+            plugin.getLogger().log(
+                    Level.SEVERE,
+                    "Could not read " + snapshotFile.getName()
+                    + "! It was renamed to " + snapshotFile.getName()
+                    + ".corrupt", e);
+
+            times.clear();
+
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException ignored) {
+                }
+                in = null;
+            }
+
+            snapshotFile.renameTo(new File(folder, snapshotFile.getName()
+                    + ".corrupt"));
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeTime(final UUID uuid) {
+        if (times.remove(uuid)) {
+            append(OP_REMOVE, uuid, 0);
+        }
+    }
+
+    @Override
+    public synchronized int removeTimesBelow(final int minimum) {
+        final List<UUID> removed = new ArrayList<UUID>();
+
+        // Only create UUIDs for the times that have to be removed
+        times.forEach(new PlaytimesTable.Visitor() {
+
+            @Override
+            public void visit(final long mostSigBits, final long leastSigBits,
+                    final int time) {
+                if (time < minimum) {
+                    removed.add(new UUID(mostSigBits, leastSigBits));
+                }
+            }
+        });
+
+        for (final UUID uuid : removed) {
+            removeTime(uuid);
+        }
+
+        return removed.size();
+    }
+
+    /**
+     * Apply all records of a journal.
+     *
+     * @param file Journal to replay
+     * @param journalGeneration Generation the journal should have
+     * @return length of the valid part of the journal, or -1 if the journal is unusable.
+     */
+    private long replayJournal(final File file, final long journalGeneration) {
+        DataInputStream in = null;
+        long validLength = -1;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+
+            if (in.readInt() != JOURNAL_MAGIC
+                    || in.readInt() != FORMAT_VERSION
+                    || in.readLong() != journalGeneration) {
+                plugin.getLogger().severe(
+                        "Ignoring invalid playtimes journal " + file.getName());
+                return -1;
+            }
+
+            // Header: magic, version and generation
+            validLength = 16;
+
+            while (true) {
+                final byte operation;
+                final long most, least;
+                final int value;
+
+                try {
+                    operation = in.readByte();
+                    most = in.readLong();
+                    least = in.readLong();
+                    value = in.readInt();
+                } catch (final EOFException e) {
+                    // End of journal (or a record that was not completely written).
+                    break;
+                }
+
+                apply(operation, most, least, value);
+                journalRecords++;
+                validLength += 21;
+            }
+        } catch (final IOException e) {
+            plugin.getLogger().log(Level.SEVERE,
+                    "Could not read playtimes journal " + file.getName(), e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException ignored) {
+                }
+            }
+        }
+
+        return validLength;
+    }
+
+    @Override
+    public void save() {
+        boolean shouldCompact;
+
+        synchronized (this) {
+            if (journal != null) {
+                try {
+                    journal.flush();
+                    journalStream.getFD().sync();
+                } catch (final IOException e) {
+                    plugin.getLogger().log(Level.SEVERE,
+                            "Could not save playtimes journal!", e);
+                }
+            }
+
+            shouldCompact = journalRecords >= MIN_COMPACT_RECORDS
+                    && journalRecords >= times.size();
+        }
+
+        if (shouldCompact) {
+            compact();
+        }
+    }
+
+    @Override
+    public synchronized void setTime(final UUID uuid, final int time) {
+        times.put(uuid, time);
+        append(OP_SET, uuid, time);
+    }
+
+    /**
+     * Write a snapshot to a temporary file and give it the name of its generation. The previous
+     * snapshot is not touched.
+     *
+     * @param copy Times to write
+     * @param snapshotGeneration Generation of the snapshot
+     * @return true if the snapshot was written; false otherwise.
+     */
+    private boolean writeSnapshot(final PlaytimesTable copy,
+            final long snapshotGeneration) {
+        final File snapshotFile = getSnapshotFile(snapshotGeneration);
+        final File tempFile = new File(folder, snapshotFile.getName() + ".tmp");
+
+        FileOutputStream stream = null;
+
+        try {
+            stream = new FileOutputStream(tempFile);
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(stream));
+
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(snapshotGeneration);
+            out.writeInt(copy.size());
+
+            // The visitor cannot throw, so remember the first error.
+            final IOException[] error = new IOException[1];
+
+            copy.forEach(new PlaytimesTable.Visitor() {
+
+                @Override
+                public void visit(final long mostSigBits,
+                        final long leastSigBits, final int time) {
+                    if (error[0] != null) {
+                        return;
+                    }
+
+                    try {
+                        out.writeLong(mostSigBits);
+                        out.writeLong(leastSigBits);
+                        out.writeInt(time);
+                    } catch (final IOException e) {
+                        error[0] = e;
+                    }
+                }
+            });
+
+            if (error[0] != null) {
+                throw error[0];
+            }
+
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.flush();
+            stream.getFD().sync();
+            out.close();
+            stream = null;
+        } catch (final IOException e) {
+            plugin.getLogger().log(Level.SEVERE,
+                    "Could not write playtimes snapshot!", e);
+            return false;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (final IOException ignored) {
+                }
+            }
+        }
+
+        // Nothing has this name yet, so it does not have to be replaced.
+        if (!tempFile.renameTo(snapshotFile)) {
+            plugin.getLogger().severe(
+                    "Could not rename " + tempFile.getName() + " to "
+                            + snapshotFile.getName() + "!");
+            tempFile.delete();
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+package me.armar.plugins.autorank.playtimes.storage;
+
+import java.util.List;
+import java.util.UUID;
+import me.armar.plugins.autorank.data.SimpleYamlConfiguration;
+import me.armar.plugins.autorank.playtimes.PlaytimesTable;
+
+/**
+ * A storage engine that keeps track of the local play time of every player. <br>
+ * {@link me.armar.plugins.autorank.playtimes.Playtimes} reads and writes all local times through
+ * one of these engines. Which engine is used is configured in the Settings.yml.
+ */
+public interface PlaytimesStorage {
+
+    /**
+     * Add time to the stored time of a player. <br>
+     * When no time was stored yet, the player will start at 0.
+     *
+     * @param uuid UUID of the player
+     * @param timeDifference Time (in minutes) to add. Can be negative.
+     * @return the new time of the player
+     */
+    public int addTime(UUID uuid, int timeDifference);
+
+    /**
+     * Persist all changes and release any files that are in use. <br>
+     * The storage cannot be used after this has been called.
+     */
+    public void close();
+
+    /**
+     * Write all stored times to the given YAML file (UUID -> minutes).
+     *
+     * @param data File to export to
+     */
+    public void exportData(SimpleYamlConfiguration data);
+
+    /**
+     * Call the visitor for every stored time. No objects are created for each entry, so this is
+     * the preferred way to walk over all times. <br>
+     * Times cannot be changed while this is running.
+     *
+     * @param visitor Visitor to call
+     */
+    public void forEach(PlaytimesTable.Visitor visitor);
+
+    /**
+     * Get the stored time of a player.
+     *
+     * @param uuid UUID of the player
+     * @return time (in minutes) of the player or 0 if nothing was stored.
+     */
+    public int getTime(UUID uuid);
+
+    /**
+     * Get the UUIDs of all players that have a time stored.
+     *
+     * @return a list of UUIDs
+     */
+    public List<UUID> getUUIDs();
+
+    /**
+     * Read all times from the given YAML file (UUID -> minutes) and store them. <br>
+     * Times that are already stored will be overwritten.
+     *
+     * @param data File to import from
+     */
+    public void importData(SimpleYamlConfiguration data);
+
+    /**
+     * Remove the stored time of a player.
+     *
+     * @param uuid UUID of the player
+     */
+    public void removeTime(UUID uuid);
+
+    /**
+     * Remove the stored time of every player that has played less than the given time.
+     *
+     * @param minimum Time (in minutes) a player should have played to be kept
+     * @return amount of players that were removed
+     */
+    public int removeTimesBelow(int minimum);
+
+    /**
+     * Make sure all changes are written to disk. <br>
+     * This is called periodically by {@link me.armar.plugins.autorank.playtimes.PlaytimesSave}.
+     */
+    public void save();
+
+    /**
+     * Set the stored time of a player.
+     *
+     * @param uuid UUID of the player
+     * @param time Time (in minutes) to set
+     */
+    public void setTime(UUID uuid, int time);
+}
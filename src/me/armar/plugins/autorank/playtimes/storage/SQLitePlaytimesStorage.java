@@ -0,0 +1,239 @@
+package me.armar.plugins.autorank.playtimes.storage;
+
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import me.armar.plugins.autorank.data.SQLDataStorage;
+import me.armar.plugins.autorank.data.SimpleYamlConfiguration;
+import me.armar.plugins.autorank.playtimes.PlaytimesTable;
+import me.armar.plugins.autorank.util.uuid.UUIDFetcher;
+
+/**
+ * Stores all local times in a table of the local database (Autorank.db). <br>
+ * UUIDs are the primary key (stored as 16 bytes) and time is indexed, so players can be removed by
+ * their time without reading the others. All times are also kept in a {@link PlaytimesTable}, so
+ * reads never wait for the database (which has only one connection). Every change is written
+ * through to the database right away, so there is nothing to save periodically.
+ */
+public class SQLitePlaytimesStorage implements PlaytimesStorage {
+
+    private static final String TABLE = "playtimes";
+
+    private static final String WRITE = "INSERT OR REPLACE INTO " + TABLE
+            + " (uuid, time) VALUES (?, ?)";
+
+    private final SQLDataStorage database;
+
+    // Guarded by this, which is never held while talking to the database.
+    private final PlaytimesTable times = new PlaytimesTable();
+
+    // Changes are written in the same order as they are made to the table.
+    private final Object writeLock = new Object();
+
+    public SQLitePlaytimesStorage(final SQLDataStorage database) {
+        this.database = database;
+
+        database.execute("CREATE TABLE IF NOT EXISTS " + TABLE
+                + " (uuid BLOB NOT NULL PRIMARY KEY, time INTEGER NOT NULL)");
+        database.execute("CREATE INDEX IF NOT EXISTS " + TABLE + "_time ON "
+                + TABLE + " (time)");
+
+        load();
+    }
+
+    @Override
+    public int addTime(final UUID uuid, final int timeDifference) {
+        synchronized (writeLock) {
+            final int time;
+
+            synchronized (this) {
+                time = times.add(uuid, timeDifference);
+            }
+
+            // Write the new time instead of the difference, so no read is needed.
+            database.executeUpdate(WRITE, UUIDFetcher.toBytes(uuid), time);
+
+            return time;
+        }
+    }
+
+    @Override
+    public void close() {
+        // Every change is written right away, the database is closed by Autorank.
+    }
+
+    @Override
+    public void exportData(final SimpleYamlConfiguration data) {
+        final PlaytimesTable copy;
+
+        synchronized (this) {
+            copy = times.copy();
+        }
+
+        copy.forEach(new PlaytimesTable.Visitor() {
+
+            @Override
+            public void visit(final long mostSigBits, final long leastSigBits,
+                    final int time) {
+                data.set(new UUID(mostSigBits, leastSigBits).toString(), time);
+            }
+        });
+
+        data.save();
+    }
+
+    @Override
+    public synchronized void forEach(final PlaytimesTable.Visitor visitor) {
+        times.forEach(visitor);
+    }
+
+    @Override
+    public synchronized int getTime(final UUID uuid) {
+        return times.get(uuid, 0);
+    }
+
+    @Override
+    public synchronized List<UUID> getUUIDs() {
+        final List<UUID> uuids = new ArrayList<UUID>(times.size());
+
+        times.forEach(new PlaytimesTable.Visitor() {
+
+            @Override
+            public void visit(final long mostSigBits, final long leastSigBits,
+                    final int time) {
+                uuids.add(new UUID(mostSigBits, leastSigBits));
+            }
+        });
+
+        return uuids;
+    }
+
+    @Override
+    public void importData(final SimpleYamlConfiguration data) {
+        data.load();
+
+        final List<Object[]> rows = new ArrayList<Object[]>();
+
+        synchronized (writeLock) {
+            synchronized (this) {
+                for (final String key : data.getKeys(false)) {
+                    UUID uuid = null;
+                    try {
+                        uuid = UUID.fromString(key);
+                    } catch (final IllegalArgumentException e) {
+                        // Player is not converted yet
+                        continue;
+                    }
+
+                    final int time = data.getInt(key, 0);
+
+                    times.put(uuid, time);
+                    rows.add(new Object[] { UUIDFetcher.toBytes(uuid), time });
+                }
+            }
+
+            // One transaction, so importing a lot of players does not take ages.
+            database.executeBatch(WRITE, rows);
+        }
+    }
+
+    /**
+     * Check whether no times are stored.
+     *
+     * @return true if there are no times stored; false otherwise.
+     */
+    public synchronized boolean isEmpty() {
+        return times.isEmpty();
+    }
+
+    /**
+     * Read all times of the database into the table.
+     */
+    private void load() {
+        database.executeQuery("SELECT uuid, time FROM " + TABLE,
+                new SQLDataStorage.ResultHandler<Void>() {
+
+                    @Override
+                    public Void handle(final ResultSet rs) throws SQLException {
+                        synchronized (SQLitePlaytimesStorage.this) {
+                            while (rs.next()) {
+                                final byte[] key = rs.getBytes(1);
+
+                                if (key == null || key.length != 16) {
+                                    continue;
+                                }
+
+                                final ByteBuffer buffer = ByteBuffer.wrap(key);
+
+                                times.put(buffer.getLong(), buffer.getLong(),
+                                        rs.getInt(2));
+                            }
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    @Override
+    public int removeTimesBelow(final int minimum) {
+        synchronized (writeLock) {
+            final List<UUID> removed = new ArrayList<UUID>();
+
+            synchronized (this) {
+                // Only create UUIDs for the times that have to be removed
+                times.forEach(new PlaytimesTable.Visitor() {
+
+                    @Override
+                    public void visit(final long mostSigBits,
+                            final long leastSigBits, final int time) {
+                        if (time < minimum) {
+                            removed.add(new UUID(mostSigBits, leastSigBits));
+                        }
+                    }
+                });
+
+                for (final UUID uuid : removed) {
+                    times.remove(uuid);
+                }
+            }
+
+            // Uses the index on time, the other players are not read at all.
+            database.executeUpdate("DELETE FROM " + TABLE + " WHERE time < ?",
+                    minimum);
+
+            return removed.size();
+        }
+    }
+
+    @Override
+    public void removeTime(final UUID uuid) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                times.remove(uuid);
+            }
+
+            database.executeUpdate("DELETE FROM " + TABLE + " WHERE uuid = ?",
+                    UUIDFetcher.toBytes(uuid));
+        }
+    }
+
+    @Override
+    public void save() {
+        // Every change is written right away.
+    }
+
+    @Override
+    public void setTime(final UUID uuid, final int time) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                times.put(uuid, time);
+            }
+
+            database.executeUpdate(WRITE, UUIDFetcher.toBytes(uuid), time);
+        }
+    }
+}
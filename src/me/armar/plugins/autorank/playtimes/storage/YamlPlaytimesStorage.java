@@ -0,0 +1,208 @@
+package me.armar.plugins.autorank.playtimes.storage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import me.armar.plugins.autorank.Autorank;
+import me.armar.plugins.autorank.data.SimpleYamlConfiguration;
+import me.armar.plugins.autorank.playtimes.PlaytimesTable;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Stores all local times in the Data.yml. Every save rewrites the complete file. <br>
+ * This is the default storage engine. The Data.yml is only read when it is loaded; after that all
+ * times are kept in a {@link PlaytimesTable}, and a save builds the file from that table again.
+ */
+public class YamlPlaytimesStorage implements PlaytimesStorage {
+
+    private final Autorank plugin;
+    private final File file;
+
+    private final PlaytimesTable times = new PlaytimesTable();
+    // Records of players that are not converted to UUIDs yet, they are written back as they are.
+    private final Map<String, Integer> unconverted = new LinkedHashMap<String, Integer>();
+
+    // Amount of changes made to the times (guarded by this)
+    private long modifications = 0;
+    // Amount of changes that were written to disk by the last save
+    private volatile long savedModifications = 0;
+
+    // Only one save can write to disk at the same time.
+    private final Object saveLock = new Object();
+
+    public YamlPlaytimesStorage(final Autorank plugin,
+            final SimpleYamlConfiguration data) {
+        this.plugin = plugin;
+
+        file = new File(plugin.getDataFolder(), "Data.yml");
+
+        loadTable(data);
+    }
+
+    @Override
+    public synchronized int addTime(final UUID uuid, final int timeDifference) {
+        modifications++;
+
+        return times.add(uuid, timeDifference);
+    }
+
+    @Override
+    public void close() {
+        save();
+    }
+
+    @Override
+    public void exportData(final SimpleYamlConfiguration data) {
+        // Data.yml is our storage, so there is nothing to copy.
+        save();
+    }
+
+    @Override
+    public synchronized void forEach(final PlaytimesTable.Visitor visitor) {
+        times.forEach(visitor);
+    }
+
+    @Override
+    public synchronized int getTime(final UUID uuid) {
+        return times.get(uuid, 0);
+    }
+
+    @Override
+    public synchronized List<UUID> getUUIDs() {
+        final List<UUID> uuids = new ArrayList<UUID>(times.size());
+
+        times.forEach(new PlaytimesTable.Visitor() {
+
+            @Override
+            public void visit(final long mostSigBits, final long leastSigBits,
+                    final int time) {
+                uuids.add(new UUID(mostSigBits, leastSigBits));
+            }
+        });
+
+        return uuids;
+    }
+
+    @Override
+    public void importData(final SimpleYamlConfiguration data) {
+        data.load();
+
+        loadTable(data);
+    }
+
+    /**
+     * Replace all times with the ones in the given Data.yml. The config is not kept.
+     *
+     * @param data Loaded Data.yml
+     */
+    private synchronized void loadTable(final SimpleYamlConfiguration data) {
+        times.clear();
+        unconverted.clear();
+
+        for (final String key : data.getKeys(false)) {
+            UUID uuid = null;
+            try {
+                uuid = UUID.fromString(key);
+            } catch (final IllegalArgumentException e) {
+                // Player is not converted yet
+                unconverted.put(key, data.getInt(key, 0));
+                continue;
+            }
+
+            times.put(uuid, data.getInt(key, 0));
+        }
+
+        // What we just loaded is what is on disk.
+        savedModifications = modifications;
+    }
+
+    @Override
+    public synchronized void removeTime(final UUID uuid) {
+        modifications++;
+
+        times.remove(uuid);
+    }
+
+    @Override
+    public synchronized int removeTimesBelow(final int minimum) {
+        final List<UUID> removed = new ArrayList<UUID>();
+
+        // Only create UUIDs for the times that have to be removed
+        times.forEach(new PlaytimesTable.Visitor() {
+
+            @Override
+            public void visit(final long mostSigBits, final long leastSigBits,
+                    final int time) {
+                if (time < minimum) {
+                    removed.add(new UUID(mostSigBits, leastSigBits));
+                }
+            }
+        });
+
+        for (final UUID uuid : removed) {
+            removeTime(uuid);
+        }
+
+        return removed.size();
+    }
+
+    /**
+     * Write all times to the Data.yml, but only when something has changed. <br>
+     * Changes are only blocked while the table is copied.
+     */
+    @Override
+    public void save() {
+        synchronized (saveLock) {
+            final PlaytimesTable copy;
+            final Map<String, Integer> unconvertedCopy;
+            final long copyModifications;
+
+            synchronized (this) {
+                copyModifications = modifications;
+
+                // Nothing changed, so there is nothing to write.
+                if (copyModifications == savedModifications && file.exists()) {
+                    return;
+                }
+
+                copy = times.copy();
+                unconvertedCopy = new LinkedHashMap<String, Integer>(
+                        unconverted);
+            }
+
+            // The document only lives as long as it is being written.
+            final YamlConfiguration document = new YamlConfiguration();
+
+            for (final Entry<String, Integer> entry : unconvertedCopy
+                    .entrySet()) {
+                document.set(entry.getKey(), entry.getValue());
+            }
+
+            copy.forEach(new PlaytimesTable.Visitor() {
+
+                @Override
+                public void visit(final long mostSigBits,
+                        final long leastSigBits, final int time) {
+                    document.set(
+                            new UUID(mostSigBits, leastSigBits).toString(),
+                            time);
+                }
+            });
+
+            if (SimpleYamlConfiguration.writeSafely(plugin, document, file)) {
+                savedModifications = copyModifications;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setTime(final UUID uuid, final int time) {
+        modifications++;
+
+        times.put(uuid, time);
+    }
+}
@@ -3,14 +3,20 @@ package me.armar.plugins.autorank.requirementhandler;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
 import me.armar.plugins.autorank.Autorank;
 import me.armar.plugins.autorank.api.events.RequirementCompleteEvent;
+import me.armar.plugins.autorank.data.SQLConnectionPool.PooledConnection;
+import me.armar.plugins.autorank.data.SQLDataStorage;
 import me.armar.plugins.autorank.playerchecker.requirement.Requirement;
 import me.armar.plugins.autorank.playerchecker.result.Result;
+import me.armar.plugins.autorank.util.uuid.UUIDFetcher;
 import me.armar.plugins.autorank.util.uuid.UUIDManager;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.file.FileConfiguration;
@@ -23,20 +29,43 @@ import org.bukkit.entity.Player;
  * should be reset as a player is not longer in the same group.
  *
  * RequirementHandler uses a file (/playerdata/playerdata.yml) which keeps tracks of these things.
+ * When sqlite storage is used, it uses the playerdata table of the local database instead (one row
+ * per player, looked up by UUID). Completed ranks are stored in their own table, one row per rank.
  *
  * @author Staartvin
  *
  */
 public class RequirementHandler {
 
+    private static final String TABLE = "playerdata";
+    private static final String RANKS_TABLE = "completed_ranks";
+
+    private static String join(final List<?> list) {
+        final StringBuilder builder = new StringBuilder();
+
+        for (final Object value : list) {
+            if (builder.length() > 0) {
+                builder.append(",");
+            }
+
+            builder.append(value);
+        }
+
+        return builder.toString();
+    }
+
     private FileConfiguration config;
     private File configFile;
     private boolean convertingData = false;
 
+    // Local database, null if playerdata.yml is used.
+    private final SQLDataStorage database;
+
     private final Autorank plugin;
 
     public RequirementHandler(final Autorank instance) {
         this.plugin = instance;
+        this.database = plugin.getEmbeddedDatabase();
 
         // Start requirement saver task
         //Run save task every 2 minutes
@@ -50,6 +79,13 @@ public class RequirementHandler {
     }
 
     public void addCompletedRanks(final UUID uuid, final String rank) {
+        if (database != null) {
+            database.executeUpdate("INSERT OR IGNORE INTO " + RANKS_TABLE
+                    + " (uuid, rank) VALUES (?, ?)", UUIDFetcher.toBytes(uuid),
+                    rank);
+            return;
+        }
+
         final List<String> completed = getCompletedRanks(uuid);
 
         completed.add(rank);
@@ -124,6 +160,11 @@ public class RequirementHandler {
     }
 
     public void createNewFile() {
+        if (database != null) {
+            createTable();
+            return;
+        }
+
         reloadConfig();
         saveConfig();
         loadConfig();
@@ -133,7 +174,143 @@ public class RequirementHandler {
         plugin.getLogger().info("Loaded playerdata.");
     }
 
+    /**
+     * Create the playerdata table. The first time, playerdata.yml is imported into it.
+     */
+    private void createTable() {
+        final boolean exists = database.executeQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new SQLDataStorage.ResultHandler<Boolean>() {
+
+                    @Override
+                    public Boolean handle(final ResultSet rs) throws SQLException {
+                        return rs.next();
+                    }
+                }, TABLE) == Boolean.TRUE;
+
+        database.execute("CREATE TABLE IF NOT EXISTS " + TABLE
+                + " (uuid BLOB NOT NULL PRIMARY KEY, last_group TEXT,"
+                + " progress TEXT NOT NULL DEFAULT '')");
+        database.execute("CREATE TABLE IF NOT EXISTS " + RANKS_TABLE
+                + " (uuid BLOB NOT NULL, rank TEXT NOT NULL,"
+                + " PRIMARY KEY (uuid, rank))");
+
+        configFile = new File(plugin.getDataFolder() + "/playerdata",
+                "playerdata.yml");
+
+        if (!exists && configFile.exists()) {
+            plugin.getLogger().info("Importing playerdata.yml into Autorank.db...");
+
+            final FileConfiguration yaml = YamlConfiguration
+                    .loadConfiguration(configFile);
+            final List<Object[]> rows = new ArrayList<Object[]>();
+            final List<Object[]> rankRows = new ArrayList<Object[]>();
+
+            for (final String key : yaml.getKeys(false)) {
+                UUID uuid = null;
+                try {
+                    uuid = UUID.fromString(key);
+                } catch (final IllegalArgumentException e) {
+                    // Player is not converted yet
+                    continue;
+                }
+
+                final byte[] uuidKey = UUIDFetcher.toBytes(uuid);
+
+                rows.add(new Object[] { uuidKey,
+                        yaml.getString(key + ".last group"),
+                        join(yaml.getIntegerList(key + ".progress")) });
+
+                for (final String rank : yaml.getStringList(key
+                        + ".completed ranks")) {
+                    rankRows.add(new Object[] { uuidKey, rank });
+                }
+            }
+
+            database.executeBatch("INSERT OR REPLACE INTO " + TABLE
+                    + " (uuid, last_group, progress) VALUES (?, ?, ?)", rows);
+            database.executeBatch("INSERT OR IGNORE INTO " + RANKS_TABLE
+                    + " (uuid, rank) VALUES (?, ?)", rankRows);
+        }
+
+        // Do not write to playerdata.yml anymore
+        configFile = null;
+
+        plugin.getLogger().info("Loaded playerdata.");
+    }
+
+    /**
+     * Read a column of the row of a player.
+     *
+     * @return value of the column, or null if the player has no row.
+     */
+    private String getColumn(final UUID uuid, final String column) {
+        return database.executeQuery("SELECT " + column + " FROM " + TABLE
+                + " WHERE uuid = ?", new SQLDataStorage.ResultHandler<String>() {
+
+            @Override
+            public String handle(final ResultSet rs) throws SQLException {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }, UUIDFetcher.toBytes(uuid));
+    }
+
+    /**
+     * Write a column of the row of a player. The row is created if it does not exist.
+     */
+    private synchronized void setColumn(final UUID uuid, final String column,
+            final String value) {
+        final byte[] key = UUIDFetcher.toBytes(uuid);
+
+        // Both in one transaction, so the row is never created without its value.
+        database.executeTransaction(new SQLDataStorage.Transaction<Void>() {
+
+            @Override
+            public Void run(final PooledConnection connection)
+                    throws SQLException {
+                final PreparedStatement update = connection
+                        .prepareStatement("UPDATE " + TABLE + " SET " + column
+                                + " = ? WHERE uuid = ?");
+                update.setString(1, value);
+                update.setBytes(2, key);
+
+                if (update.executeUpdate() == 0) {
+                    final PreparedStatement insert = connection
+                            .prepareStatement("INSERT INTO " + TABLE + " (uuid, "
+                                    + column + ") VALUES (?, ?)");
+                    insert.setBytes(1, key);
+                    insert.setString(2, value);
+                    insert.executeUpdate();
+                }
+
+                return null;
+            }
+        });
+    }
+
     private List<String> getCompletedRanks(final UUID uuid) {
+        if (database != null) {
+            final List<String> completed = database.executeQuery(
+                    "SELECT rank FROM " + RANKS_TABLE
+                            + " WHERE uuid = ? ORDER BY rowid",
+                    new SQLDataStorage.ResultHandler<List<String>>() {
+
+                        @Override
+                        public List<String> handle(final ResultSet rs)
+                                throws SQLException {
+                            final List<String> ranks = new ArrayList<String>();
+
+                            while (rs.next()) {
+                                ranks.add(rs.getString(1));
+                            }
+
+                            return ranks;
+                        }
+                    }, UUIDFetcher.toBytes(uuid));
+
+            return completed == null ? new ArrayList<String>() : completed;
+        }
+
         final List<String> completed = config.getStringList(uuid.toString()
                 + ".completed ranks");
 
@@ -150,6 +327,10 @@ public class RequirementHandler {
     public String getLastKnownGroup(final UUID uuid) {
         //UUID uuid = UUIDManager.getUUIDFromPlayer(playerName);
 
+        if (database != null) {
+            return getColumn(uuid, "last_group");
+        }
+
         plugin.debugMessage("Config - Last known group: " + config);
         plugin.debugMessage("Config - Last known group (uuid): "
                 + uuid.toString());
@@ -160,6 +341,23 @@ public class RequirementHandler {
     public List<Integer> getProgress(final UUID uuid) {
         //UUID uuid = UUIDManager.getUUIDFromPlayer(playerName);
 
+        if (database != null) {
+            final String value = getColumn(uuid, "progress");
+            final List<Integer> progress = new ArrayList<Integer>();
+
+            if (value != null && !value.isEmpty()) {
+                for (final String reqID : value.split(",")) {
+                    try {
+                        progress.add(Integer.parseInt(reqID));
+                    } catch (final NumberFormatException e) {
+                        // Not a valid id, skip it.
+                    }
+                }
+            }
+
+            return progress;
+        }
+
         return (List<Integer>) config.getList(uuid.toString() + ".progress",
                 new ArrayList<Integer>());
     }
@@ -245,17 +443,58 @@ public class RequirementHandler {
 
     public void setCompletedRanks(final UUID uuid,
             final List<String> completedRanks) {
+        if (database != null) {
+            final byte[] key = UUIDFetcher.toBytes(uuid);
+
+            // Replace all ranks at once, so they are never half written.
+            database.executeTransaction(new SQLDataStorage.Transaction<Void>() {
+
+                @Override
+                public Void run(final PooledConnection connection)
+                        throws SQLException {
+                    final PreparedStatement delete = connection
+                            .prepareStatement("DELETE FROM " + RANKS_TABLE
+                                    + " WHERE uuid = ?");
+                    delete.setBytes(1, key);
+                    delete.executeUpdate();
+
+                    final PreparedStatement insert = connection
+                            .prepareStatement("INSERT OR IGNORE INTO "
+                                    + RANKS_TABLE + " (uuid, rank) VALUES (?, ?)");
+
+                    for (final String rank : completedRanks) {
+                        insert.setBytes(1, key);
+                        insert.setString(2, rank);
+                        insert.executeUpdate();
+                    }
+
+                    return null;
+                }
+            });
+            return;
+        }
+
         config.set(uuid.toString() + ".completed ranks", completedRanks);
     }
 
     public void setLastKnownGroup(final UUID uuid, final String group) {
         //UUID uuid = UUIDManager.getUUIDFromPlayer(playerName);
+
+        if (database != null) {
+            setColumn(uuid, "last_group", group);
+            return;
+        }
         config.set(uuid.toString() + ".last group", group);
     }
 
     public void setPlayerProgress(final UUID uuid, final List<Integer> progress) {
         //UUID uuid = UUIDManager.getUUIDFromPlayer(playerName);
 
+        if (database != null) {
+            setColumn(uuid, "progress", join(progress));
+            return;
+        }
+
         config.set(uuid.toString() + ".progress", progress);
     }
 }
@@ -0,0 +1,155 @@
+package me.armar.plugins.autorank.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bukkit.ChatColor;
+
+/**
+ * A layout of the config (for example the leaderboard layout) that is parsed once, so it can be
+ * filled in many times without regular expressions or intermediate strings. <br>
+ * A layout is split in literal text and placeholders (like &p). Color codes in the literal text
+ * are translated when the layout is compiled. Filling it in only appends the literal text and the
+ * values to a StringBuilder, which makes it cheap enough for output that is refreshed often.
+ */
+public class LayoutTemplate {
+
+    // Builder per thread, reused for every line that is rendered.
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
+    /**
+     * Compile a layout. When placeholders start with the same text, the longest one that matches
+     * is used (so &tm is not read as &t followed by m).
+     *
+     * @param layout Layout to compile
+     * @param placeholders Placeholders that can be used in the layout. The values given to
+     *            {@link #render(Object...)} are in the same order.
+     * @return compiled layout
+     */
+    public static LayoutTemplate compile(final String layout,
+            final String... placeholders) {
+        final List<String> literals = new ArrayList<String>();
+        final List<Integer> used = new ArrayList<Integer>();
+
+        final StringBuilder literal = new StringBuilder();
+        int position = 0;
+
+        while (position < layout.length()) {
+            int match = -1;
+
+            for (int i = 0; i < placeholders.length; i++) {
+                if (layout.startsWith(placeholders[i], position)
+                        && (match < 0 || placeholders[i].length() > placeholders[match]
+                                .length())) {
+                    match = i;
+                }
+            }
+
+            if (match < 0) {
+                literal.append(layout.charAt(position));
+                position++;
+                continue;
+            }
+
+            literals.add(ChatColor.translateAlternateColorCodes('&',
+                    literal.toString()));
+            used.add(match);
+            literal.setLength(0);
+
+            position += placeholders[match].length();
+        }
+
+        literals.add(ChatColor.translateAlternateColorCodes('&',
+                literal.toString()));
+
+        final int[] segments = new int[used.size()];
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = used.get(i);
+        }
+
+        return new LayoutTemplate(layout,
+                literals.toArray(new String[literals.size()]), segments,
+                placeholders.length);
+    }
+
+    private final String layout;
+
+    // Literal text before every placeholder, and the text after the last one.
+    private final String[] literals;
+
+    // Placeholder at every position between two literals.
+    private final int[] segments;
+
+    private final boolean[] used;
+
+    private LayoutTemplate(final String layout, final String[] literals,
+            final int[] segments, final int placeholders) {
+        this.layout = layout;
+        this.literals = literals;
+        this.segments = segments;
+        this.used = new boolean[placeholders];
+
+        for (final int segment : segments) {
+            used[segment] = true;
+        }
+    }
+
+    /**
+     * Get the layout this template was compiled from.
+     *
+     * @return layout of the config
+     */
+    public String getLayout() {
+        return layout;
+    }
+
+    /**
+     * Fill in the layout and append it to a builder.
+     *
+     * @param builder Builder to append to
+     * @param values Value of every placeholder, in the order they were given to
+     *            {@link #compile(String, String...)}.
+     */
+    public void render(final StringBuilder builder, final Object... values) {
+        for (int i = 0; i < segments.length; i++) {
+            builder.append(literals[i]);
+            builder.append(values[segments[i]]);
+        }
+
+        builder.append(literals[segments.length]);
+    }
+
+    /**
+     * Fill in the layout.
+     *
+     * @param values Value of every placeholder, in the order they were given to
+     *            {@link #compile(String, String...)}.
+     * @return the filled in layout
+     */
+    public String render(final Object... values) {
+        final StringBuilder builder = BUILDER.get();
+        builder.setLength(0);
+
+        render(builder, values);
+
+        return builder.toString();
+    }
+
+    /**
+     * Check whether a placeholder is used in the layout, so values that are expensive to get can
+     * be skipped when they are not shown.
+     *
+     * @param placeholder Index of the placeholder, in the order they were given to
+     *            {@link #compile(String, String...)}.
+     * @return true if the layout contains the placeholder; false otherwise.
+     */
+    public boolean uses(final int placeholder) {
+        return used[placeholder];
+    }
+}
@@ -26,7 +26,7 @@ import org.json.simple.parser.ParseException;
  */
 public class NameFetcher implements Callable<Map<UUID, String>> {
 
-    private static final String PROFILE_URL = "https://sessionserver.mojang.com/session/minecraft/profile/";
+    public static final String PROFILE_URL = "https://sessionserver.mojang.com/session/minecraft/profile/";
 
     public static String fromStream(final InputStream in) throws IOException {
         final BufferedReader reader = new BufferedReader(new InputStreamReader(
@@ -47,8 +47,20 @@ public class NameFetcher implements Callable<Map<UUID, String>> {
 
     private final List<UUID> uuids;
 
+    private final String profileUrl;
+
     public NameFetcher(final List<UUID> uuids) {
+        this(uuids, PROFILE_URL);
+    }
+
+    /**
+     * @param uuids UUIDs to look up
+     * @param profileUrl Page the UUIDs are appended to, {@link #PROFILE_URL} unless another page
+     *            stands in for Mojang.
+     */
+    public NameFetcher(final List<UUID> uuids, final String profileUrl) {
         this.uuids = ImmutableList.copyOf(uuids);
+        this.profileUrl = profileUrl;
     }
 
     /* (non-Javadoc)
@@ -59,7 +71,7 @@ public class NameFetcher implements Callable<Map<UUID, String>> {
         final Map<UUID, String> uuidStringMap = new HashMap<UUID, String>();
         for (final UUID uuid : uuids) {
             final HttpURLConnection connection = (HttpURLConnection) new URL(
-                    PROFILE_URL + uuid.toString().replace("-", ""))
+                    profileUrl + uuid.toString().replace("-", ""))
                     .openConnection();
 
             JSONObject response = null;
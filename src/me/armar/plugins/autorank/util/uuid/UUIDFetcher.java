@@ -22,11 +22,12 @@ import org.json.simple.parser.JSONParser;
  */
 public class UUIDFetcher implements Callable<Map<String, UUID>> {
 
-    private static final String PROFILE_URL = "https://api.mojang.com/profiles/minecraft";
+    public static final String PROFILE_URL = "https://api.mojang.com/profiles/minecraft";
     private static final double PROFILES_PER_REQUEST = 100;
 
-    private static HttpURLConnection createConnection() throws Exception {
-        final URL url = new URL(PROFILE_URL);
+    private static HttpURLConnection createConnection(final String profileUrl)
+            throws Exception {
+        final URL url = new URL(profileUrl);
         final HttpURLConnection connection = (HttpURLConnection) url
                 .openConnection();
         connection.setRequestMethod("POST");
@@ -79,13 +80,30 @@ public class UUIDFetcher implements Callable<Map<String, UUID>> {
 
     private final boolean rateLimiting;
 
+    private final String profileUrl;
+
+    // Names of the requests that failed
+    private final Set<String> failedNames = new HashSet<String>();
+
     public UUIDFetcher(final List<String> names) {
         this(names, true);
     }
 
     public UUIDFetcher(final List<String> names, final boolean rateLimiting) {
+        this(names, rateLimiting, PROFILE_URL);
+    }
+
+    /**
+     * @param names Names to look up
+     * @param rateLimiting Whether to wait between two requests
+     * @param profileUrl Page to send the names to, {@link #PROFILE_URL} unless another page
+     *            stands in for Mojang.
+     */
+    public UUIDFetcher(final List<String> names, final boolean rateLimiting,
+            final String profileUrl) {
         this.names = ImmutableList.copyOf(names);
         this.rateLimiting = rateLimiting;
+        this.profileUrl = profileUrl;
     }
 
     @Override
@@ -94,9 +112,10 @@ public class UUIDFetcher implements Callable<Map<String, UUID>> {
         final int requests = (int) Math.ceil(names.size()
                 / PROFILES_PER_REQUEST);
         for (int i = 0; i < requests; i++) {
-            final HttpURLConnection connection = createConnection();
-            final String body = JSONArray.toJSONString(names.subList(i * 100,
-                    Math.min((i + 1) * 100, names.size())));
+            final HttpURLConnection connection = createConnection(profileUrl);
+            final List<String> request = names.subList(i * 100,
+                    Math.min((i + 1) * 100, names.size()));
+            final String body = JSONArray.toJSONString(request);
             writeBody(connection, body);
             JSONArray array;
 
@@ -105,7 +124,8 @@ public class UUIDFetcher implements Callable<Map<String, UUID>> {
                         connection.getInputStream()));
             } catch (final Exception e) {
                 System.out.print("[Autorank] Could not fetch UUID of player '"
-                        + names.get(i) + "'!");
+                        + request.get(0) + "'!");
+                failedNames.addAll(request);
                 continue;
             }
 
@@ -124,4 +144,15 @@ public class UUIDFetcher implements Callable<Map<String, UUID>> {
         }
         return uuidMap;
     }
+
+    /**
+     * Get the names that could not be looked up, because Mojang did not answer (for example
+     * when too many requests were sent). These are missing from the result of {@link #call()},
+     * but that does not mean they do not exist.
+     *
+     * @return names of the requests that failed
+     */
+    public Set<String> getFailedNames() {
+        return failedNames;
+    }
 }
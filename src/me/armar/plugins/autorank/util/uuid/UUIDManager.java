@@ -1,8 +1,9 @@
 package me.armar.plugins.autorank.util.uuid;
 
-import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import me.armar.plugins.autorank.Autorank;
 import org.bukkit.Bukkit;
 
@@ -10,7 +11,7 @@ import org.bukkit.Bukkit;
  * This class allows developers to easily get UUIDs from names <br>
  * or to do the reverse. <br>
  * It has an implemented cache system, which makes sure it doesn't do a lookup <br>
- * when not needed.
+ * when not needed. Lookups are done by a shared {@link UUIDResolver}.
  * <p>
  * Date created: 17:13:57 2 apr. 2014
  *
@@ -25,9 +26,8 @@ public class UUIDManager {
         plugin = (Autorank) Bukkit.getPluginManager().getPlugin("Autorank");
     }
 
-    private static Map<UUID, String> foundPlayers = new HashMap<UUID, String>();
-
-    private static Map<String, UUID> foundUUIDs = new HashMap<String, UUID>();
+    // Looks up players that are not cached, shared by all lookups. Created when it is first needed.
+    private static UUIDResolver resolver;
 
     // Whether to use cache or not
     private static final boolean useCache = true;
@@ -104,100 +104,47 @@ public class UUIDManager {
      * Get the player names associated with this UUID. <br>
      * This method has to run async, because it will use the lookup from the Mojang API. <br>
      * It also takes care of already cached values. It doesn't lookup new players when it still has
-     * old, valid ones stored.
+     * old, valid ones stored. Players that are already being looked up by another call are not
+     * looked up again.
      *
      * @param uuids A list of uuids to get the player names of.
      * @return A map containing every player name per UUID.
      */
     public static Map<UUID, String> getPlayers(final List<UUID> uuids) {
-        // Clear names first
-        foundPlayers.clear();
-
         // A new map to store cached values
         final HashMap<UUID, String> players = new HashMap<UUID, String>();
 
-        // This is used to check if we need to use the lookup from the mojang website.
-        boolean useInternetLookup = true;
-
-        if (useCache) {
-            // Check if we have cached values
-            for (final UUID uuid : uuids) {
-
-                final String playerName = plugin.getUUIDStorage()
-                        .getPlayerName(uuid);
-
-                if (playerName != null) {
-                    // If cached value is still valid, use it.
-                    if (!plugin.getUUIDStorage().isOutdated(playerName)) {
-                        players.put(uuid, playerName);
-                    }
-                }
-            }
+        // Players that we haven't got cached values of yet.
+        final List<UUID> lookups = new ArrayList<UUID>();
 
-            // All names were retrieved from cached values
-            // So we don't need to do a lookup to the Mojang website.
-            if (players.entrySet().size() == uuids.size()) {
-                useInternetLookup = false;
-            }
+        for (final UUID uuid : uuids) {
+            final String playerName = useCache ? plugin.getUUIDStorage()
+                    .getPlayerName(uuid) : null;
 
-            // No internet lookup needed.
-            if (!useInternetLookup) {
-                // Return all cached values.
-                return players;
-            }
-
-            // From here on we know that didn't have all uuids as cached values.
-            // So we need to do a lookup.
-            // We have to make sure we only lookup the players that we haven't got cached values of yet.
-            // Remove uuids that don't need to be looked up anymore.
-            // Just for performance sake.
-            for (final UUID entry : players.keySet()) {
-                uuids.remove(entry);
+            // If cached value is still valid, use it.
+            if (playerName != null
+                    && !plugin.getUUIDStorage().isOutdated(playerName)) {
+                players.put(uuid, playerName);
+            } else {
+                lookups.add(uuid);
             }
+        }
 
+        // All names were retrieved from cached values
+        // So we don't need to do a lookup to the Mojang website.
+        if (lookups.isEmpty()) {
+            return players;
         }
 
         // Now we need to lookup the other players
-        final Thread fetcherThread = new Thread(new Runnable() {
-
-            @Override
-            public void run() {
-                final NameFetcher fetcher = new NameFetcher(uuids);
-
-                Map<UUID, String> response = null;
-
-                try {
-                    response = fetcher.call();
-                } catch (final Exception e) {
-                    if (e instanceof IOException) {
-                        Bukkit.getLogger()
-                                .warning(
-                                        "Tried to contact Mojang page for UUID lookup but failed.");
-                        return;
-                    }
-                    e.printStackTrace();
-                }
-
-                if (response != null) {
-                    foundPlayers = response;
-                }
-            }
-        });
-
-        fetcherThread.start();
+        for (final Entry<UUID, Future<String>> entry : getResolver().resolveNames(
+                lookups).entrySet()) {
+            final String playerName = getResult(entry.getValue());
+            final UUID uuid = entry.getKey();
 
-        if (fetcherThread.isAlive()) {
-            try {
-                fetcherThread.join();
-            } catch (final InterruptedException e) {
-                e.printStackTrace();
+            if (playerName == null) {
+                continue;
             }
-        }
-
-        // Update cached entries
-        for (final Entry<UUID, String> entry : foundPlayers.entrySet()) {
-            final String playerName = entry.getValue();
-            final UUID uuid = entry.getKey();
 
             // Add found players to the list of players to return
             players.put(uuid, playerName);
@@ -205,16 +152,44 @@ public class UUIDManager {
             if (plugin.getUUIDStorage().isOutdated(playerName)) {
                 // Update cached values
                 addCachedPlayer(playerName, uuid);
-            } else {
-                // Do not update if it is not needed.
-                continue;
             }
         }
 
-        // Thread stopped now, collect results
         return players;
     }
 
+    /**
+     * Get the resolver that looks up players that are not cached. Unless another one was set, it
+     * asks Mojang.
+     *
+     * @return resolver to use
+     */
+    private static synchronized UUIDResolver getResolver() {
+        if (resolver == null) {
+            resolver = new UUIDResolver(plugin.getConfigHandler()
+                    .getUnknownNameCacheTime() * 60000L);
+        }
+
+        return resolver;
+    }
+
+    /**
+     * Wait for a lookup to finish.
+     *
+     * @return the result of the lookup, or null if it failed.
+     */
+    private static <T> T getResult(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (final ExecutionException e) {
+            // Already reported by the resolver.
+            return null;
+        }
+    }
+
     /**
      * Get the UUID of the Mojang account associated with this player name <br>
      * It uses {@link #getUUIDs(List)} to get the UUID.
@@ -248,114 +223,88 @@ public class UUIDManager {
                 + playerName + "!");
     }
 
+    /**
+     * Get the UUID of a player that has been stored before, like every player that has joined
+     * this server. <br>
+     * Names that were never stored are rejected right away, without a lookup at Mojang. Use
+     * {@link #getUUIDFromPlayer(String)} for players that may not have joined yet.
+     *
+     * @param playerName Name of the player
+     * @return UUID of the associated Mojang account or null if not found.
+     */
+    public static UUID getUUIDFromKnownPlayer(final String playerName) {
+        if (playerName == null) {
+            return null;
+        }
+
+        if (useCache && !plugin.getUUIDStorage().isKnownName(playerName)) {
+            return null;
+        }
+
+        return getUUIDFromPlayer(playerName);
+    }
+
     /**
      * Get the UUIDs of a list of players. <br>
      * This method has to run async, because it will use the lookup from the Mojang API. <br>
      * It also takes care of already cached values. It doesn't lookup new players when it still has
-     * old, valid ones stored.
+     * old, valid ones stored. Players that are already being looked up by another call are not
+     * looked up again.
      *
      * @param names A list of playernames that you want the UUIDs of.
      * @return A map containing every UUID per player name.
      */
     public static Map<String, UUID> getUUIDs(final List<String> names) {
-
-        // Clear maps first
-        foundUUIDs.clear();
-
         // A new map to store cached values
         final HashMap<String, UUID> uuids = new HashMap<String, UUID>();
 
-        // This is used to check if we need to use the lookup from the mojang website.
-        boolean useInternetLookup = true;
-
-        if (useCache) {
-            // Check if we have cached values
-            for (final String playerName : names) {
-
-                // If cached value is still valid, use it.
-                if (!plugin.getUUIDStorage().isOutdated(playerName)) {
-                    uuids.put(playerName, getCachedUUID(playerName));
-                }
-            }
-
-            // All names were retrieved from cached values
-            // So we don't need to do a lookup to the Mojang website.
-            if (uuids.entrySet().size() == names.size()) {
-                useInternetLookup = false;
-            }
+        // Players that we haven't got cached values of yet.
+        final List<String> lookups = new ArrayList<String>();
 
-            // No internet lookup needed.
-            if (!useInternetLookup) {
-                // Return all cached values.
-                return uuids;
-            }
-
-            // From here on we know that didn't have all uuids as cached values.
-            // So we need to do a lookup.
-            // We have to make sure we only lookup the players that we haven't got cached values of yet.
-            // Remove players that don't need to be looked up anymore.
-            // Just for performance sake.
-            for (final Entry<String, UUID> entry : uuids.entrySet()) {
-                names.remove(entry.getKey());
+        for (final String playerName : names) {
+            // If cached value is still valid, use it.
+            if (useCache && !plugin.getUUIDStorage().isOutdated(playerName)) {
+                uuids.put(playerName, getCachedUUID(playerName));
+            } else {
+                lookups.add(playerName);
             }
+        }
 
+        // All uuids were retrieved from cached values
+        // So we don't need to do a lookup to the Mojang website.
+        if (lookups.isEmpty()) {
+            return uuids;
         }
 
         // Now we need to lookup the other players
-        final Thread fetcherThread = new Thread(new Runnable() {
-
-            @Override
-            public void run() {
-                final UUIDFetcher fetcher = new UUIDFetcher(names);
-
-                Map<String, UUID> response = null;
-
-                try {
-                    response = fetcher.call();
-                } catch (final Exception e) {
-                    if (e instanceof IOException) {
-                        Bukkit.getLogger()
-                                .warning(
-                                        "Tried to contact Mojang page for UUID lookup but failed.");
-                        return;
-                    }
-                    e.printStackTrace();
-                }
-
-                if (response != null) {
-                    foundUUIDs = response;
-                }
-            }
-        });
+        for (final Entry<String, Future<UUIDResolver.Profile>> entry : getResolver()
+                .resolveUUIDs(lookups).entrySet()) {
+            final UUIDResolver.Profile profile = getResult(entry.getValue());
 
-        fetcherThread.start();
-
-        if (fetcherThread.isAlive()) {
-            try {
-                fetcherThread.join();
-            } catch (final InterruptedException e) {
-                e.printStackTrace();
+            if (profile == null) {
+                continue;
             }
-        }
-
-        // Update cached entries
-        for (final Entry<String, UUID> entry : foundUUIDs.entrySet()) {
-            final String playerName = entry.getKey();
-            final UUID uuid = entry.getValue();
 
             // Add found uuids to the list of uuids to return
-            uuids.put(playerName, uuid);
+            uuids.put(entry.getKey(), profile.getUUID());
 
-            if (plugin.getUUIDStorage().isOutdated(playerName)) {
+            // Store the name as Mojang has it, not as it was typed.
+            if (plugin.getUUIDStorage().isOutdated(profile.getName())) {
                 // Update cached values
-                addCachedPlayer(playerName, uuid);
-            } else {
-                // Do not update if it is not needed.
-                continue;
+                addCachedPlayer(profile.getName(), profile.getUUID());
             }
         }
 
-        // Thread stopped now, collect results
         return uuids;
     }
+
+    /**
+     * Use another resolver to look up players that are not cached, for example one that asks a
+     * page that stands in for Mojang.
+     *
+     * @param resolver Resolver to use
+     */
+    public static synchronized void setResolver(final UUIDResolver resolver) {
+        UUIDManager.resolver = resolver;
+    }
 }
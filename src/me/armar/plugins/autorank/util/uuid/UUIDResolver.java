@@ -0,0 +1,402 @@
+package me.armar.plugins.autorank.util.uuid;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Bukkit;
+
+/**
+ * Looks up UUIDs and names at Mojang, on a small number of shared threads. <br>
+ * Every lookup returns a future. When a name (or UUID) is already being looked up, the same future
+ * is returned, so it is only looked up once. Names (or UUIDs) that are requested while no lookup
+ * has started yet are looked up together, with one {@link UUIDFetcher} (or {@link NameFetcher}).
+ * <br>
+ * A future gives null when Mojang does not know the name or UUID, and fails when Mojang could not
+ * be reached. <br>
+ * Names that Mojang does not know are remembered for a while, so looking them up again (a typo
+ * that is used again, for example) gives null right away instead of asking Mojang again.
+ */
+public class UUIDResolver {
+
+    /**
+     * A player found at Mojang: the UUID and the name in its correct case.
+     */
+    public static class Profile {
+
+        private final String name;
+        private final UUID uuid;
+
+        private Profile(final String name, final UUID uuid) {
+            this.name = name;
+            this.uuid = uuid;
+        }
+
+        /**
+         * Get the name as Mojang knows it, which may be in another case than was looked up.
+         *
+         * @return name of the player
+         */
+        public String getName() {
+            return name;
+        }
+
+        public UUID getUUID() {
+            return uuid;
+        }
+    }
+
+    /**
+     * Maximum amount of threads that look up players at the same time.
+     */
+    public static final int MAX_THREADS = 2;
+
+    /**
+     * Maximum amount of unknown names that are remembered.
+     */
+    public static final int MAX_UNKNOWN_NAMES = 10000;
+
+    private final ThreadPoolExecutor executor;
+
+    private final String profileUrl;
+    private final String sessionUrl;
+
+    // Time (in ms) an unknown name is remembered
+    private final long unknownNameTime;
+
+    // Names Mojang did not know, with the time (in ms) they are forgotten
+    private final Map<String, Long> unknownNames = new ConcurrentHashMap<String, Long>();
+
+    // Lookups that were requested, but have not finished yet (guarded by this)
+    private final Map<String, SettableFuture<Profile>> pendingNames = new HashMap<String, SettableFuture<Profile>>();
+    private final Map<UUID, SettableFuture<String>> pendingUUIDs = new HashMap<UUID, SettableFuture<String>>();
+
+    // Lookups that were requested, but are not sent to Mojang yet (guarded by this)
+    private List<String> queuedNames = new ArrayList<String>();
+    private List<UUID> queuedUUIDs = new ArrayList<UUID>();
+
+    /**
+     * Create a resolver that asks Mojang.
+     *
+     * @param unknownNameTime Time (in ms) to remember names that Mojang does not know
+     */
+    public UUIDResolver(final long unknownNameTime) {
+        this(UUIDFetcher.PROFILE_URL, NameFetcher.PROFILE_URL, unknownNameTime);
+    }
+
+    /**
+     * Create a resolver that asks the given pages instead of Mojang. They have to answer the
+     * same way as Mojang does.
+     *
+     * @param profileUrl Page to look up UUIDs, see {@link UUIDFetcher#PROFILE_URL}
+     * @param sessionUrl Page to look up names, see {@link NameFetcher#PROFILE_URL}
+     * @param unknownNameTime Time (in ms) to remember names that Mojang does not know
+     */
+    public UUIDResolver(final String profileUrl, final String sessionUrl,
+            final long unknownNameTime) {
+        this.profileUrl = profileUrl;
+        this.sessionUrl = sessionUrl;
+        this.unknownNameTime = unknownNameTime;
+
+        executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+
+                    private int count = 0;
+
+                    @Override
+                    public synchronized Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable,
+                                "Autorank UUID lookup #" + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        // Do not keep threads around when nothing is looked up.
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Look up the names of the queued UUIDs with one {@link NameFetcher}.
+     */
+    private void fetchNames() {
+        final List<UUID> uuids;
+
+        synchronized (this) {
+            uuids = queuedUUIDs;
+            queuedUUIDs = new ArrayList<UUID>();
+        }
+
+        if (uuids.isEmpty()) {
+            return;
+        }
+
+        Map<UUID, String> response = null;
+        Exception failure = null;
+
+        try {
+            response = new NameFetcher(uuids, sessionUrl).call();
+        } catch (final Exception e) {
+            failure = e;
+            logFailure(e);
+        }
+
+        synchronized (this) {
+            for (final UUID uuid : uuids) {
+                final SettableFuture<String> future = pendingUUIDs.remove(uuid);
+
+                if (future == null) {
+                    continue;
+                }
+
+                if (failure != null) {
+                    future.setException(failure);
+                } else {
+                    future.set(response.get(uuid));
+                }
+            }
+        }
+    }
+
+    /**
+     * Look up the UUIDs of the queued names with one {@link UUIDFetcher}.
+     */
+    private void fetchUUIDs() {
+        final List<String> names;
+
+        synchronized (this) {
+            names = queuedNames;
+            queuedNames = new ArrayList<String>();
+        }
+
+        if (names.isEmpty()) {
+            return;
+        }
+
+        final Map<String, Profile> found = new HashMap<String, Profile>();
+        Set<String> failedNames = Collections.emptySet();
+        Exception failure = null;
+
+        try {
+            final UUIDFetcher fetcher = new UUIDFetcher(names, true, profileUrl);
+
+            // Mojang returns the names in their correct case.
+            for (final Map.Entry<String, UUID> entry : fetcher.call()
+                    .entrySet()) {
+                found.put(entry.getKey().toLowerCase(), new Profile(
+                        entry.getKey(), entry.getValue()));
+            }
+
+            failedNames = fetcher.getFailedNames();
+
+            if (!failedNames.isEmpty()) {
+                failure = new IOException("Could not look up "
+                        + failedNames.size() + " names");
+                logFailure(failure);
+            }
+        } catch (final Exception e) {
+            failure = e;
+            logFailure(e);
+        }
+
+        synchronized (this) {
+            for (final String name : names) {
+                final SettableFuture<Profile> future = pendingNames.remove(name);
+
+                if (future == null) {
+                    continue;
+                }
+
+                final Profile profile = found.get(name);
+
+                if (profile != null) {
+                    future.set(profile);
+                } else if (failure != null
+                        && (failedNames.isEmpty() || failedNames.contains(name))) {
+                    future.setException(failure);
+                } else {
+                    setUnknown(name);
+                    future.set(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether Mojang did not know a name when it was looked up recently.
+     *
+     * @param key Name in lower case
+     * @return true if the name is still remembered as unknown; false otherwise.
+     */
+    private boolean isUnknown(final String key) {
+        final Long forgetTime = unknownNames.get(key);
+
+        if (forgetTime == null) {
+            return false;
+        }
+
+        if (forgetTime < System.currentTimeMillis()) {
+            unknownNames.remove(key);
+            return false;
+        }
+
+        return true;
+    }
+
+    private void logFailure(final Exception e) {
+        if (e instanceof IOException) {
+            Bukkit.getLogger().warning(
+                    "Tried to contact Mojang page for UUID lookup but failed.");
+        } else {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Remember that Mojang does not know a name.
+     *
+     * @param key Name in lower case
+     */
+    private void setUnknown(final String key) {
+        if (unknownNameTime <= 0) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        if (unknownNames.size() >= MAX_UNKNOWN_NAMES) {
+            // Forget the names that have expired, or all of them if that is not enough.
+            for (final Map.Entry<String, Long> entry : unknownNames.entrySet()) {
+                if (entry.getValue() < now) {
+                    unknownNames.remove(entry.getKey());
+                }
+            }
+
+            if (unknownNames.size() >= MAX_UNKNOWN_NAMES) {
+                unknownNames.clear();
+            }
+        }
+
+        unknownNames.put(key, now + unknownNameTime);
+    }
+
+    /**
+     * Look up the name of a UUID.
+     *
+     * @param uuid UUID to look up
+     * @return the name, see {@link UUIDResolver}.
+     */
+    public Future<String> resolveName(final UUID uuid) {
+        return resolveNames(Collections.singletonList(uuid)).get(uuid);
+    }
+
+    /**
+     * Look up the names of UUIDs. UUIDs that are not being looked up yet are looked up together.
+     *
+     * @param uuids UUIDs to look up
+     * @return a future name per UUID, see {@link UUIDResolver}.
+     */
+    public Map<UUID, Future<String>> resolveNames(final Collection<UUID> uuids) {
+        final Map<UUID, Future<String>> futures = new LinkedHashMap<UUID, Future<String>>();
+        boolean queued = false;
+
+        synchronized (this) {
+            for (final UUID uuid : uuids) {
+                SettableFuture<String> future = pendingUUIDs.get(uuid);
+
+                if (future == null) {
+                    future = SettableFuture.create();
+                    pendingUUIDs.put(uuid, future);
+                    queuedUUIDs.add(uuid);
+                    queued = true;
+                }
+
+                futures.put(uuid, future);
+            }
+        }
+
+        if (queued) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    fetchNames();
+                }
+            });
+        }
+
+        return futures;
+    }
+
+    /**
+     * Look up the UUID of a name.
+     *
+     * @param name Name to look up (in any case)
+     * @return the UUID and correct name, see {@link UUIDResolver}.
+     */
+    public Future<Profile> resolveUUID(final String name) {
+        return resolveUUIDs(Collections.singletonList(name)).get(name);
+    }
+
+    /**
+     * Look up the UUIDs of names. Names that are not being looked up yet are looked up together.
+     * Names that Mojang did not know recently are not looked up again.
+     *
+     * @param names Names to look up (in any case)
+     * @return a future UUID and correct name per name, see {@link UUIDResolver}.
+     */
+    public Map<String, Future<Profile>> resolveUUIDs(
+            final Collection<String> names) {
+        final Map<String, Future<Profile>> futures = new LinkedHashMap<String, Future<Profile>>();
+        boolean queued = false;
+
+        synchronized (this) {
+            for (final String name : names) {
+                final String key = name.toLowerCase();
+
+                if (isUnknown(key)) {
+                    futures.put(name, Futures.<Profile> immediateFuture(null));
+                    continue;
+                }
+
+                SettableFuture<Profile> future = pendingNames.get(key);
+
+                if (future == null) {
+                    future = SettableFuture.create();
+                    pendingNames.put(key, future);
+                    queuedNames.add(key);
+                    queued = true;
+                }
+
+                futures.put(name, future);
+            }
+        }
+
+        if (queued) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    fetchUUIDs();
+                }
+            });
+        }
+
+        return futures;
+    }
+}
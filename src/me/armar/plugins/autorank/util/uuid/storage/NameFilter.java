@@ -0,0 +1,64 @@
+package me.armar.plugins.autorank.util.uuid.storage;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * A bloom filter of player names, so it can be told in memory (and without a query) that a name
+ * was never stored. <br>
+ * When the filter says a name is not in it, it really is not. When it says a name is in it, it
+ * probably is (about 1 in 100 names is a false match). Names are case insensitive. Names cannot be
+ * removed, so a name that was renamed keeps matching.
+ */
+public class NameFilter {
+
+    private static final double FALSE_MATCHES = 0.01;
+
+    private final BloomFilter<CharSequence> filter;
+
+    private final int expectedNames;
+    private int names = 0;
+
+    /**
+     * @param expectedNames Amount of names the filter is made for. More names can be added, but
+     *            the filter matches more names that were not added, see {@link #isFull()}.
+     */
+    public NameFilter(final int expectedNames) {
+        this.expectedNames = Math.max(1, expectedNames);
+
+        filter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8),
+                this.expectedNames, FALSE_MATCHES);
+    }
+
+    /**
+     * Add a name.
+     *
+     * @param name Name of the player (in any case)
+     */
+    public synchronized void add(final String name) {
+        if (filter.put(name.toLowerCase())) {
+            names++;
+        }
+    }
+
+    /**
+     * Check whether more names were added than the filter was made for, so it should be made
+     * again with a bigger size.
+     *
+     * @return true if it is full; false otherwise.
+     */
+    public synchronized boolean isFull() {
+        return names > expectedNames;
+    }
+
+    /**
+     * Check whether a name might have been added.
+     *
+     * @param name Name of the player (in any case)
+     * @return false if the name was never added; true if it probably was.
+     */
+    public synchronized boolean mightContain(final String name) {
+        return filter.mightContain(name.toLowerCase());
+    }
+}
@@ -0,0 +1,276 @@
+package me.armar.plugins.autorank.util.uuid.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Stores all looked up uuids in one binary file (uuids.dat), made of fixed-width records. <br>
+ * Every record holds a name (at most 16 bytes), a uuid and the time it was stored, and has a fixed
+ * place in the file. Loading reads the file from start to end without parsing any text. Saving
+ * only writes the records that changed since the last save, at their own place, so the rest of
+ * the file is not touched. Records of removed players are reused for new players.
+ */
+public class UUIDCacheFile {
+
+    private static final int MAGIC = 0x41525555; // ARUU
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Maximum length (in bytes) of a name that can be stored.
+     */
+    public static final int MAX_NAME_LENGTH = 16;
+
+    // used flag, name length, name, uuid, update time
+    private static final int RECORD_SIZE = 2 + MAX_NAME_LENGTH + 16 + 8;
+
+    private static final byte[] EMPTY_RECORD = new byte[RECORD_SIZE];
+
+    private static byte[] getNameBytes(final String name) {
+        try {
+            return name.getBytes("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final File file;
+
+    // Record of every stored uuid
+    private final Map<UUID, Integer> slots = new HashMap<UUID, Integer>();
+    // Records that are not used anymore
+    private final Deque<Integer> freeSlots = new ArrayDeque<Integer>();
+    private int slotCount = 0;
+
+    // Records that have to be written, by record number (guarded by this)
+    private Map<Integer, byte[]> dirty = new HashMap<Integer, byte[]>();
+
+    // Only one save can write to the file at the same time.
+    private final Object saveLock = new Object();
+
+    public UUIDCacheFile(final File file) {
+        this.file = file;
+    }
+
+    private int allocateSlot() {
+        final Integer free = freeSlots.poll();
+
+        return free != null ? free : slotCount++;
+    }
+
+    private byte[] encode(final String name, final UUID uuid,
+            final long updateTime) {
+        final byte[] nameBytes = getNameBytes(name);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.put((byte) 1);
+        buffer.put((byte) nameBytes.length);
+        buffer.put(nameBytes);
+        buffer.position(2 + MAX_NAME_LENGTH);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        buffer.putLong(updateTime);
+
+        return buffer.array();
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Check whether a name fits in a record.
+     *
+     * @param name Name of the player
+     * @return true if it can be stored; false otherwise.
+     */
+    public boolean fits(final String name) {
+        return getNameBytes(name).length <= MAX_NAME_LENGTH;
+    }
+
+    /**
+     * Load all records into an index. Records that are broken, or that the index did not keep
+     * (because another record has the same name), are freed.
+     *
+     * @param index Index to add all players to
+     * @throws IOException when the file cannot be read or is not a uuid file.
+     */
+    public synchronized void load(final UUIDIndex index) throws IOException {
+        final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 65536));
+
+        final Map<Integer, UUID> loaded = new TreeMap<Integer, UUID>();
+
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException(file.getName()
+                        + " is not a valid uuid file");
+            }
+
+            final byte[] record = new byte[RECORD_SIZE];
+
+            while (true) {
+                try {
+                    input.readFully(record);
+                } catch (final EOFException e) {
+                    // A record that was only half written is ignored as well.
+                    break;
+                }
+
+                final int slot = slotCount++;
+                final ByteBuffer buffer = ByteBuffer.wrap(record);
+
+                final byte used = buffer.get();
+                final int nameLength = buffer.get();
+
+                if (used != 1 || nameLength <= 0
+                        || nameLength > MAX_NAME_LENGTH) {
+                    freeSlots.add(slot);
+                    continue;
+                }
+
+                final String name = new String(record, 2, nameLength, "UTF-8");
+                buffer.position(2 + MAX_NAME_LENGTH);
+                final UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+
+                final Integer previous = slots.put(uuid, slot);
+
+                if (previous != null) {
+                    loaded.remove(previous);
+                    free(previous);
+                }
+
+                loaded.put(slot, uuid);
+                index.put(name, uuid, buffer.getLong());
+            }
+        } finally {
+            input.close();
+        }
+
+        // Free the records of players that lost their name to a later record.
+        for (final Map.Entry<Integer, UUID> entry : loaded.entrySet()) {
+            if (index.get(entry.getValue()) == null) {
+                slots.remove(entry.getValue());
+                free(entry.getKey());
+            }
+        }
+    }
+
+    private void free(final int slot) {
+        freeSlots.add(slot);
+        dirty.put(slot, EMPTY_RECORD);
+    }
+
+    /**
+     * Remove the record of a uuid. It is removed from the file on the next save.
+     *
+     * @param uuid UUID to remove
+     */
+    public synchronized void remove(final UUID uuid) {
+        final Integer slot = slots.remove(uuid);
+
+        if (slot != null) {
+            free(slot);
+        }
+    }
+
+    /**
+     * Write all records that have changed since the last save. When nothing has changed, the file
+     * is not touched at all.
+     *
+     * @throws IOException when the file could not be written. The records will be written on the
+     *             next save.
+     */
+    public void save() throws IOException {
+        synchronized (saveLock) {
+            final Map<Integer, byte[]> changes;
+            final int size;
+
+            synchronized (this) {
+                if (!dirty.isEmpty() || !file.exists()) {
+                    changes = dirty;
+                    dirty = new HashMap<Integer, byte[]>();
+                    size = slotCount;
+                } else {
+                    return;
+                }
+            }
+
+            try {
+                final RandomAccessFile output = new RandomAccessFile(file, "rw");
+
+                try {
+                    if (output.length() < HEADER_SIZE) {
+                        output.writeInt(MAGIC);
+                        output.writeInt(VERSION);
+                    }
+
+                    // In order of their place in the file.
+                    for (final Map.Entry<Integer, byte[]> entry : new TreeMap<Integer, byte[]>(
+                            changes).entrySet()) {
+                        output.seek(HEADER_SIZE + (long) entry.getKey()
+                                * RECORD_SIZE);
+                        output.write(entry.getValue());
+                    }
+
+                    // Never cut off a record that was added in the meantime.
+                    if (output.length() < HEADER_SIZE + (long) size
+                            * RECORD_SIZE) {
+                        output.setLength(HEADER_SIZE + (long) size
+                                * RECORD_SIZE);
+                    }
+                } finally {
+                    output.close();
+                }
+            } catch (final IOException e) {
+                // Write them again next time, unless they were changed again in the meantime.
+                synchronized (this) {
+                    for (final Map.Entry<Integer, byte[]> entry : changes
+                            .entrySet()) {
+                        if (!dirty.containsKey(entry.getKey())) {
+                            dirty.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Store a player. The record is written on the next save.
+     *
+     * @param name Name of the player, see {@link #fits(String)}
+     * @param uuid UUID of the player
+     * @param updateTime Time (in ms) the player was stored
+     */
+    public synchronized void set(final String name, final UUID uuid,
+            final long updateTime) {
+        Integer slot = slots.get(uuid);
+
+        if (slot == null) {
+            slot = allocateSlot();
+            slots.put(uuid, slot);
+        }
+
+        dirty.put(slot, encode(name, uuid, updateTime));
+    }
+}
@@ -0,0 +1,120 @@
+package me.armar.plugins.autorank.util.uuid.storage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps every stored player in memory, so a UUID can be found by name and a name can be found by
+ * UUID without going through all uuid files. <br>
+ * Names are looked up case insensitive, like Minecraft does. Both maps point to the same
+ * {@link Entry}, so a player is only stored once. Lookups do not lock; changes are synchronized so
+ * both maps always agree with each other.
+ */
+public class UUIDIndex {
+
+    /**
+     * A stored player.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final UUID uuid;
+        private final long updateTime;
+
+        private Entry(final String name, final UUID uuid, final long updateTime) {
+            this.name = name;
+            this.uuid = uuid;
+            this.updateTime = updateTime;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get when the player was stored.
+         *
+         * @return time in ms, or -1 if unknown.
+         */
+        public long getUpdateTime() {
+            return updateTime;
+        }
+
+        public UUID getUUID() {
+            return uuid;
+        }
+    }
+
+    private static String toKey(final String name) {
+        return name.toLowerCase();
+    }
+
+    private final Map<String, Entry> names = new ConcurrentHashMap<String, Entry>();
+    private final Map<UUID, Entry> uuids = new ConcurrentHashMap<UUID, Entry>();
+
+    /**
+     * Get a player by name.
+     *
+     * @param name Name of the player, in any case
+     * @return the stored player, or null if the name is not stored.
+     */
+    public Entry get(final String name) {
+        return names.get(toKey(name));
+    }
+
+    /**
+     * Get a player by UUID.
+     *
+     * @param uuid UUID of the player
+     * @return the stored player, or null if the UUID is not stored.
+     */
+    public Entry get(final UUID uuid) {
+        return uuids.get(uuid);
+    }
+
+    /**
+     * Store a player. The old name of the UUID is removed, and so is the player that used to have
+     * this name.
+     *
+     * @param name Name of the player
+     * @param uuid UUID of the player
+     * @param updateTime Time (in ms) the player was stored, or -1 if unknown.
+     */
+    public synchronized void put(final String name, final UUID uuid,
+            final long updateTime) {
+        final Entry entry = new Entry(name, uuid, updateTime);
+
+        final Entry oldName = uuids.put(uuid, entry);
+
+        if (oldName != null) {
+            names.remove(toKey(oldName.getName()));
+        }
+
+        final Entry oldUUID = names.put(toKey(name), entry);
+
+        if (oldUUID != null && !oldUUID.getUUID().equals(uuid)) {
+            uuids.remove(oldUUID.getUUID());
+        }
+    }
+
+    /**
+     * Get all stored players.
+     *
+     * @return a view of all players
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(uuids.values());
+    }
+
+    /**
+     * Get the amount of stored players.
+     *
+     * @return amount of players
+     */
+    public int size() {
+        return uuids.size();
+    }
+}
@@ -2,18 +2,31 @@ package me.armar.plugins.autorank.util.uuid.storage;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
 import me.armar.plugins.autorank.Autorank;
+import me.armar.plugins.autorank.data.SQLConnectionPool.PooledConnection;
+import me.armar.plugins.autorank.data.SQLDataStorage;
+import me.armar.plugins.autorank.util.uuid.UUIDFetcher;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 
 /**
- * This class represents a multitude of files where are looked up uuids are stored.
+ * This class stores all uuids that were looked up, so they do not have to be looked up again.
  * </br>Every player has its own uuid, which is stored with the time it was last stored.
+ * </br>All players are kept in a {@link UUIDIndex}, so looking up a name or uuid does not go
+ * through the stored players. They are saved in uuids.dat (see {@link UUIDCacheFile}); the old
+ * uuid files (one per starting letter) are imported into it once.
+ * </br>When sqlite storage is used, all uuids are stored in the uuids table of the local database
+ * instead, which can be searched by name and by uuid. Names are case insensitive in both.
+ * </br>Every stored name is also added to a {@link NameFilter}, so a name that was never stored
+ * can be told apart without a query.
  * <p>
  * Date created: 15:35:30 13 okt. 2014
  *
@@ -22,11 +35,24 @@ import org.bukkit.configuration.file.YamlConfiguration;
  */
 public class UUIDStorage {
 
-    private final HashMap<String, FileConfiguration> configs = new HashMap<String, FileConfiguration>();
-    private final HashMap<String, File> configFiles = new HashMap<String, File>();
+    private static final String TABLE = "uuids";
+
+    // Smallest amount of names the name filter is made for.
+    private static final int MIN_FILTER_SIZE = 1000;
 
     private final Autorank plugin;
 
+    // Local database, null if the uuid file is used.
+    private final SQLDataStorage database;
+
+    // Every player of the uuid file, by name and by uuid.
+    private final UUIDIndex index = new UUIDIndex();
+
+    private final UUIDCacheFile cacheFile;
+
+    // Every stored name, null until the stored uuids are loaded.
+    private volatile NameFilter knownNames;
+
     private final String desFolder;
 
     // Expiration date in hours
@@ -38,8 +64,11 @@ public class UUIDStorage {
 
     public UUIDStorage(final Autorank instance) {
         this.plugin = instance;
+        this.database = plugin.getEmbeddedDatabase();
 
         desFolder = plugin.getDataFolder() + "/uuids";
+        cacheFile = new UUIDCacheFile(new File(plugin.getDataFolder(),
+                "uuids.dat"));
 
         //Run save task every 2 minutes
         plugin.getServer().getScheduler()
@@ -52,74 +81,212 @@ public class UUIDStorage {
     }
 
     public void createNewFiles() {
+        if (database != null) {
+            createTable();
+        } else {
+            loadFile();
+        }
 
-        for (final String suffix : fileSuffixes) {
-            plugin.debugMessage("Loading uuids_" + suffix + " ...");
+        buildNameFilter();
+    }
+
+    /**
+     * Make the name filter again, with every name that is stored now.
+     */
+    private void buildNameFilter() {
+        final List<String> names;
+
+        if (database != null) {
+            names = database.executeQuery("SELECT name FROM " + TABLE,
+                    new SQLDataStorage.ResultHandler<List<String>>() {
+
+                        @Override
+                        public List<String> handle(final ResultSet rs)
+                                throws SQLException {
+                            final List<String> result = new ArrayList<String>();
 
-            reloadConfig(suffix);
-            loadConfig(suffix);
+                            while (rs.next()) {
+                                result.add(rs.getString(1));
+                            }
+
+                            return result;
+                        }
+                    });
+
+            // Without a filter every name may be stored.
+            if (names == null) {
+                return;
+            }
+        } else {
+            names = new ArrayList<String>();
+
+            for (final UUIDIndex.Entry entry : index.getEntries()) {
+                names.add(entry.getName());
+            }
         }
 
-        // Convert old format to new UUID storage format
-        //convertNamesToUUIDs();
-        plugin.getLogger().info("Loaded stored uuids.");
-    }
+        final NameFilter filter = new NameFilter(Math.max(MIN_FILTER_SIZE,
+                names.size() * 2));
 
-    public void saveAllFiles() {
-        for (final String suffix : fileSuffixes) {
-            saveConfig(suffix);
+        for (final String name : names) {
+            filter.add(name);
         }
+
+        knownNames = filter;
     }
 
-    public FileConfiguration getConfig(final String key) {
-        final FileConfiguration config = configs.get(key);
+    /**
+     * Load uuids.dat, or import the old uuid files into it when it does not exist yet.
+     */
+    private void loadFile() {
+        if (cacheFile.exists()) {
+            try {
+                cacheFile.load(index);
 
-        if (config == null) {
-            this.reloadConfig(key);
+                plugin.getLogger().info(
+                        "Loaded " + index.size() + " stored uuids.");
+                return;
+            } catch (final IOException e) {
+                // Keep the broken file, and start over from the old uuid files.
+                final File broken = new File(cacheFile.getFile().getPath()
+                        + ".broken");
+                broken.delete();
+                cacheFile.getFile().renameTo(broken);
+
+                plugin.getLogger().log(Level.SEVERE,
+                        "Could not load " + cacheFile.getFile().getName()
+                                + ", it was renamed to " + broken.getName(), e);
+            }
+        }
+
+        // Import the old uuid files once.
+        importShards(index);
+
+        for (final UUIDIndex.Entry entry : index.getEntries()) {
+            if (cacheFile.fits(entry.getName())) {
+                cacheFile.set(entry.getName(), entry.getUUID(),
+                        entry.getUpdateTime());
+            }
         }
 
-        return config;
+        saveAllFiles();
+
+        if (index.size() > 0) {
+            plugin.getLogger().info(
+                    "Imported " + index.size() + " uuids into "
+                            + cacheFile.getFile().getName()
+                            + ". The uuids folder is not used anymore.");
+        }
     }
 
-    public void loadConfig(final String key) {
+    /**
+     * Create the uuids table. The first time, all uuids of uuids.dat (or the old uuid files) are
+     * imported into it.
+     */
+    private void createTable() {
+        final boolean exists = database.executeQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new SQLDataStorage.ResultHandler<Boolean>() {
 
-        final FileConfiguration config = configs.get(key);
+                    @Override
+                    public Boolean handle(final ResultSet rs) throws SQLException {
+                        return rs.next();
+                    }
+                }, TABLE) == Boolean.TRUE;
+
+        database.execute("CREATE TABLE IF NOT EXISTS " + TABLE
+                + " (name TEXT NOT NULL COLLATE NOCASE PRIMARY KEY,"
+                + " uuid BLOB NOT NULL, updated INTEGER NOT NULL)");
+        database.execute("CREATE INDEX IF NOT EXISTS " + TABLE + "_uuid ON "
+                + TABLE + " (uuid)");
+
+        if (!exists) {
+            final UUIDIndex stored = new UUIDIndex();
+
+            boolean loaded = false;
+
+            if (cacheFile.exists()) {
+                try {
+                    cacheFile.load(stored);
+                    loaded = true;
+                } catch (final IOException e) {
+                    plugin.getLogger().warning(
+                            "Could not load " + cacheFile.getFile().getName()
+                                    + ": " + e.getMessage());
+                }
+            }
 
-        config.options()
-                .header("This file stores all uuids of players that Autorank has looked up before."
-                        + "\nEach file stores accounts with the starting letter of the player's name.");
+            if (!loaded) {
+                importShards(stored);
+            }
 
-        config.options().copyDefaults(true);
-        saveConfig(key);
-    }
+            final List<Object[]> rows = new ArrayList<Object[]>();
+
+            for (final UUIDIndex.Entry entry : stored.getEntries()) {
+                rows.add(new Object[] { entry.getName(),
+                        UUIDFetcher.toBytes(entry.getUUID()),
+                        Math.max(0, entry.getUpdateTime()) });
+            }
 
-    public void reloadConfig(final String key) {
-        File configFile = null;
-        FileConfiguration config = null;
+            if (!rows.isEmpty()) {
+                plugin.getLogger().info("Importing uuid files into Autorank.db...");
 
-        if (!configFiles.containsKey(key) || configFiles.get(key) == null) {
-            configFile = new File(desFolder, "uuids_" + key + ".yml");
+                database.executeBatch("INSERT OR REPLACE INTO " + TABLE
+                        + " (name, uuid, updated) VALUES (?, ?, ?)", rows);
+            }
         }
-        config = YamlConfiguration.loadConfiguration(configFile);
 
-        // Store new configs
-        configs.put(key, config);
-        configFiles.put(key, configFile);
+        plugin.getLogger().info("Loaded stored uuids.");
     }
 
-    public void saveConfig(final String key) {
-        final File configFile = configFiles.get(key);
-        final FileConfiguration config = configs.get(key);
+    /**
+     * Read all players of the old uuid files (uuids/uuids_*.yml), one file per starting letter.
+     *
+     * @param target Index to add the players to
+     */
+    private void importShards(final UUIDIndex target) {
+        for (final String suffix : fileSuffixes) {
+            final File file = new File(desFolder, "uuids_" + suffix + ".yml");
+
+            if (!file.exists()) {
+                continue;
+            }
+
+            plugin.debugMessage("Loading uuids_" + suffix + " ...");
+
+            final FileConfiguration config = YamlConfiguration
+                    .loadConfiguration(file);
+
+            for (final String playerName : config.getKeys(false)) {
+                final String uuidString = config.getString(playerName
+                        + ".uuid");
+
+                if (uuidString == null) {
+                    continue;
+                }
+
+                try {
+                    target.put(playerName, UUID.fromString(uuidString),
+                            config.getLong(playerName + ".updateTime", -1));
+                } catch (final IllegalArgumentException e) {
+                    // Not a valid UUID, skip it.
+                }
+            }
+        }
+    }
 
-        if (config == null || configFile == null) {
+    public void saveAllFiles() {
+        // Every change is written to the database right away.
+        if (database != null) {
             return;
         }
 
+        // Only the players that changed are written.
         try {
-            getConfig(key).save(configFile);
-        } catch (final IOException ex) {
+            cacheFile.save();
+        } catch (final IOException e) {
             plugin.getLogger().log(Level.SEVERE,
-                    "Could not save config to " + configFile, ex);
+                    "Could not save " + cacheFile.getFile().getName(), e);
         }
     }
 
@@ -142,12 +309,17 @@ public class UUIDStorage {
         return "other";
     }
 
-    public FileConfiguration findCorrectConfig(final String playerName) {
-        final String key = findMatchingKey(playerName);
-
-        final FileConfiguration config = configs.get(key);
-
-        return config;
+    /**
+     * Check whether a name might be stored. This is checked in memory, see {@link NameFilter}.
+     *
+     * @param playerName Name of the player (in any case)
+     * @return false if the name was never stored; true if it probably was (or the stored uuids
+     *         are not loaded yet).
+     */
+    public boolean isKnownName(final String playerName) {
+        final NameFilter filter = knownNames;
+
+        return filter == null || filter.mightContain(playerName);
     }
 
     public boolean isOutdated(final String playerName) {
@@ -156,20 +328,51 @@ public class UUIDStorage {
     }
 
     public UUID getStoredUUID(final String playerName) {
-
-        final String uuidString = findCorrectConfig(playerName).getString(
-                playerName + ".uuid", null);
-
-        if (uuidString == null) {
-            return null;
+        if (database != null) {
+            return database.executeQuery("SELECT uuid FROM " + TABLE
+                    + " WHERE name = ?",
+                    new SQLDataStorage.ResultHandler<UUID>() {
+
+                        @Override
+                        public UUID handle(final ResultSet rs) throws SQLException {
+                            if (!rs.next()) {
+                                return null;
+                            }
+
+                            final byte[] bytes = rs.getBytes(1);
+
+                            return bytes == null || bytes.length != 16 ? null
+                                    : UUIDFetcher.fromBytes(bytes);
+                        }
+                    }, playerName);
         }
 
-        return UUID.fromString(uuidString);
+        final UUIDIndex.Entry entry = index.get(playerName);
+
+        return entry == null ? null : entry.getUUID();
     }
 
     public int getLastUpdateTime(final String playerName) {
-        final long lastUpdateTime = findCorrectConfig(playerName).getLong(
-                playerName + ".updateTime", -1);
+        final long lastUpdateTime;
+
+        if (database != null) {
+            final Long updated = database.executeQuery("SELECT updated FROM "
+                    + TABLE + " WHERE name = ?",
+                    new SQLDataStorage.ResultHandler<Long>() {
+
+                        @Override
+                        public Long handle(final ResultSet rs)
+                                throws SQLException {
+                            return rs.next() ? rs.getLong(1) : -1L;
+                        }
+                    }, playerName);
+
+            lastUpdateTime = updated == null ? -1 : updated;
+        } else {
+            final UUIDIndex.Entry entry = index.get(playerName);
+
+            lastUpdateTime = entry == null ? -1 : entry.getUpdateTime();
+        }
 
         if (lastUpdateTime < 0) {
             return -1;
@@ -182,70 +385,135 @@ public class UUIDStorage {
         return timeDifference;
     }
 
-    public void storeUUID(final String playerName, final UUID uuid) {
-        FileConfiguration config;
+    public synchronized void storeUUID(final String playerName,
+            final UUID uuid) {
+        if (database != null) {
+            final byte[] key = UUIDFetcher.toBytes(uuid);
+
+            database.executeTransaction(new SQLDataStorage.Transaction<Void>() {
+
+                @Override
+                public Void run(final PooledConnection connection)
+                        throws SQLException {
+                    // Remove old name, because apparently name was changed.
+                    final PreparedStatement oldName = connection
+                            .prepareStatement("DELETE FROM " + TABLE
+                                    + " WHERE uuid = ? AND name <> ?");
+                    oldName.setBytes(1, key);
+                    oldName.setString(2, playerName);
+                    oldName.executeUpdate();
+
+                    // Another account used to have this name.
+                    final PreparedStatement previousOwner = connection
+                            .prepareStatement("DELETE FROM " + TABLE
+                                    + " WHERE name = ? AND uuid <> ?");
+                    previousOwner.setString(1, playerName);
+                    previousOwner.setBytes(2, key);
+                    previousOwner.executeUpdate();
+
+                    final PreparedStatement insert = connection
+                            .prepareStatement("INSERT OR REPLACE INTO " + TABLE
+                                    + " (name, uuid, updated) VALUES (?, ?, ?)");
+                    insert.setString(1, playerName);
+                    insert.setBytes(2, key);
+                    insert.setLong(3, System.currentTimeMillis());
+                    insert.executeUpdate();
+
+                    return null;
+                }
+            });
 
-        // Remove old name and uuid because apparently name was changed.
-        if (isAlreadyStored(uuid)) {
-            // Change name to new name
-            final String oldUser = getPlayerName(uuid);
+            addKnownName(playerName);
 
-            // Change config pointer to correct config
-            config = findCorrectConfig(oldUser);
+            plugin.debugMessage("Stored user '" + playerName + "' with uuid "
+                    + uuid + "!");
+            return;
+        }
+
+        final long updateTime = System.currentTimeMillis();
+
+        // Remove old name and uuid because apparently name was changed.
+        final UUIDIndex.Entry old = index.get(uuid);
 
+        if (old != null) {
             // Name didn't change, it was just out of date.
-            if (oldUser.equals(playerName)) {
+            if (old.getName().equals(playerName)) {
                 // Don't do anything besides updating updateTime.
-                config.set(playerName + ".updateTime",
-                        System.currentTimeMillis());
+                index.put(playerName, uuid, updateTime);
+                cacheFile.set(playerName, uuid, updateTime);
 
                 plugin.debugMessage("Refreshed user '" + playerName
                         + "' with uuid " + uuid + "!");
                 return;
             }
 
-            config.set(oldUser, null);
+            plugin.debugMessage("Deleting old user '" + old.getName() + "'!");
+        }
+
+        // Another account used to have this name.
+        final UUIDIndex.Entry previousOwner = index.get(playerName);
 
-            plugin.debugMessage("Deleting old user '" + oldUser + "'!");
+        if (previousOwner != null && !previousOwner.getUUID().equals(uuid)) {
+            cacheFile.remove(previousOwner.getUUID());
         }
 
-        config = findCorrectConfig(playerName);
+        index.put(playerName, uuid, updateTime);
 
-        config.set(playerName + ".uuid", uuid.toString());
-        config.set(playerName + ".updateTime", System.currentTimeMillis());
+        if (cacheFile.fits(playerName)) {
+            cacheFile.set(playerName, uuid, updateTime);
+        } else {
+            // Not a Minecraft name, only keep it until the server stops.
+            cacheFile.remove(uuid);
+        }
+
+        addKnownName(playerName);
 
         plugin.debugMessage("Stored user '" + playerName + "' with uuid "
                 + uuid + "!");
     }
 
-    public String getPlayerName(final UUID uuid, final String key) {
-        final FileConfiguration config = configs.get(key);
+    private void addKnownName(final String playerName) {
+        final NameFilter filter = knownNames;
 
-        for (final String fPlayerName : config.getKeys(false)) {
-            final String fuuid = config.getString(fPlayerName + ".uuid");
+        if (filter == null) {
+            return;
+        }
 
-            if (fuuid.equals(uuid.toString())) {
-                return fPlayerName;
-            }
+        filter.add(playerName);
+
+        if (filter.isFull()) {
+            buildNameFilter();
+        }
+    }
+
+    public String getPlayerName(final UUID uuid, final String key) {
+        if (database != null) {
+            return getPlayerName(uuid);
         }
+        final UUIDIndex.Entry entry = index.get(uuid);
 
-        return null;
+        // Only if the name starts with the letter of that key.
+        if (entry == null || !findMatchingKey(entry.getName()).equals(key)) {
+            return null;
+        }
+
+        return entry.getName();
     }
 
     public String getPlayerName(final UUID uuid) {
-        for (final String suffix : fileSuffixes) {
-            final FileConfiguration config = getConfig(suffix);
+        if (database != null) {
+            return database.executeQuery("SELECT name FROM " + TABLE
+                    + " WHERE uuid = ?", new SQLDataStorage.ResultHandler<String>() {
 
-            for (final String fPlayerName : config.getKeys(false)) {
-                final String fuuid = config.getString(fPlayerName + ".uuid");
-
-                if (fuuid.equals(uuid.toString())) {
-                    return fPlayerName;
+                @Override
+                public String handle(final ResultSet rs) throws SQLException {
+                    return rs.next() ? rs.getString(1) : null;
                 }
-            }
+            }, UUIDFetcher.toBytes(uuid));
         }
+        final UUIDIndex.Entry entry = index.get(uuid);
 
-        return null;
+        return entry == null ? null : entry.getName();
     }
 
     public boolean isAlreadyStored(final UUID uuid, final String key) {
@@ -0,0 +1,219 @@
+package me.armar.plugins.autorank.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import me.armar.plugins.autorank.data.SQLConnectionPool.PooledConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SQLConnectionPoolTest {
+
+    private static int databases = 0;
+
+    private SQLConnectionPool pool;
+
+    private SQLConnectionPool createPool(final int maxSize,
+            final long maxLifetime) {
+        // Every pool gets its own in-memory database.
+        return new SQLConnectionPool("jdbc:h2:mem:pool" + (databases++)
+                + ";DB_CLOSE_DELAY=-1", "sa", "", maxSize, maxLifetime, 0,
+                Logger.getLogger("SQLConnectionPoolTest"));
+    }
+
+    @Before
+    public void setUp() {
+        pool = createPool(2, 0);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void borrowAndRelease() throws SQLException {
+        assertEquals(0, pool.getSize());
+
+        final PooledConnection first = pool.borrow();
+        assertEquals(1, pool.getSize());
+
+        final ResultSet result = first.prepareStatement("SELECT 1")
+                .executeQuery();
+        assertTrue(result.next());
+        assertEquals(1, result.getInt(1));
+        result.close();
+
+        pool.release(first, false);
+        assertEquals(1, pool.getSize());
+
+        // The idle connection is reused.
+        final PooledConnection second = pool.borrow();
+        assertSame(first, second);
+        assertEquals(1, pool.getSize());
+
+        // Both connections are in use at the same time.
+        final PooledConnection third = pool.borrow();
+        assertNotSame(second, third);
+        assertEquals(2, pool.getSize());
+
+        pool.release(second, false);
+        pool.release(third, false);
+        assertEquals(2, pool.getSize());
+    }
+
+    @Test
+    public void borrowTimesOutWhenAllConnectionsAreInUse() throws SQLException {
+        pool.setBorrowTimeout(100);
+
+        final PooledConnection first = pool.borrow();
+        final PooledConnection second = pool.borrow();
+
+        final long start = System.currentTimeMillis();
+
+        try {
+            pool.borrow();
+            fail("Borrowing from a pool that is in use should time out");
+        } catch (final SQLException e) {
+            assertTrue(System.currentTimeMillis() - start >= 100);
+        }
+
+        pool.release(first, false);
+        pool.release(second, false);
+    }
+
+    @Test
+    public void borrowWaitsForRelease() throws Exception {
+        final PooledConnection first = pool.borrow();
+        final PooledConnection second = pool.borrow();
+
+        final AtomicReference<PooledConnection> waited = new AtomicReference<PooledConnection>();
+
+        final Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    waited.set(pool.borrow());
+                } catch (final SQLException e) {
+                    // Leaves waited empty
+                }
+            }
+        });
+
+        thread.start();
+        Thread.sleep(100);
+
+        // Still waiting for a connection
+        assertTrue(thread.isAlive());
+
+        pool.release(first, false);
+        thread.join(5000);
+
+        assertSame(first, waited.get());
+
+        pool.release(waited.get(), false);
+        pool.release(second, false);
+    }
+
+    @Test
+    public void statementsAreCached() throws SQLException {
+        final PooledConnection connection = pool.borrow();
+
+        final PreparedStatement statement = connection
+                .prepareStatement("SELECT ?");
+        statement.setInt(1, 5);
+
+        final PreparedStatement cached = connection.prepareStatement("SELECT ?");
+        assertSame(statement, cached);
+
+        pool.release(connection, false);
+
+        // The cache is kept when the connection is reused.
+        final PooledConnection reused = pool.borrow();
+        assertSame(statement, reused.prepareStatement("SELECT ?"));
+
+        pool.release(reused, false);
+    }
+
+    @Test
+    public void leastRecentlyUsedStatementIsEvicted() throws SQLException {
+        final PooledConnection connection = pool.borrow();
+
+        final PreparedStatement first = connection.prepareStatement("SELECT 0");
+        final PreparedStatement second = connection
+                .prepareStatement("SELECT 1");
+
+        // Use the first statement again, so the second one is the least recently used.
+        connection.prepareStatement("SELECT 0");
+
+        for (int i = 2; i <= SQLConnectionPool.STATEMENT_CACHE_SIZE; i++) {
+            connection.prepareStatement("SELECT " + i);
+        }
+
+        assertTrue(second.isClosed());
+        assertFalse(first.isClosed());
+        assertSame(first, connection.prepareStatement("SELECT 0"));
+
+        // An evicted statement is prepared again.
+        final PreparedStatement prepared = connection
+                .prepareStatement("SELECT 1");
+        assertNotSame(second, prepared);
+        assertFalse(prepared.isClosed());
+
+        pool.release(connection, false);
+    }
+
+    @Test
+    public void brokenConnectionIsReplaced() throws SQLException {
+        final PooledConnection broken = pool.borrow();
+
+        broken.getConnection().close();
+        pool.release(broken, true);
+        assertEquals(0, pool.getSize());
+
+        final PooledConnection replacement = pool.borrow();
+        assertNotSame(broken, replacement);
+        assertFalse(replacement.getConnection().isClosed());
+
+        pool.release(replacement, false);
+    }
+
+    @Test
+    public void expiredConnectionIsReplaced() throws Exception {
+        pool.close();
+        pool = createPool(1, 50);
+
+        final PooledConnection first = pool.borrow();
+        pool.release(first, false);
+
+        Thread.sleep(100);
+
+        final PooledConnection second = pool.borrow();
+        assertNotSame(first, second);
+        assertTrue(first.getConnection().isClosed());
+
+        pool.release(second, false);
+
+        Thread.sleep(100);
+
+        pool.retireExpired();
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test(expected = SQLException.class)
+    public void closedPoolCannotBeUsed() throws SQLException {
+        pool.close();
+        pool.borrow();
+    }
+}
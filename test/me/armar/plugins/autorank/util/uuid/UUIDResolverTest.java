@@ -0,0 +1,225 @@
+package me.armar.plugins.autorank.util.uuid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the resolver against a local page that answers like Mojang.
+ */
+public class UUIDResolverTest {
+
+    private static final UUID NOTCH = UUID
+            .fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+    private static final UUID JEB = UUID
+            .fromString("853c80ef-3c37-49fd-aa49-938b674adae6");
+
+    private static String readBody(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toString("UTF-8");
+    }
+
+    private static void respond(final HttpExchange exchange, final String body)
+            throws IOException {
+        final byte[] bytes = body.getBytes("UTF-8");
+
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private HttpServer server;
+    private String baseUrl;
+
+    // Bodies of all requests for UUIDs, in the order they were received
+    private final List<String> requests = new CopyOnWriteArrayList<String>();
+    // Requests for UUIDs are answered once this is opened.
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        server.createContext("/profiles", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String body = readBody(exchange.getRequestBody())
+                        .toLowerCase();
+
+                requests.add(body);
+
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                final StringBuilder response = new StringBuilder("[");
+
+                if (body.contains("\"notch\"")) {
+                    response.append("{\"id\":\"069a79f444e94726a5befca90e38aaf5\",\"name\":\"Notch\"}");
+                }
+
+                if (body.contains("\"jeb_\"")) {
+                    if (response.length() > 1) {
+                        response.append(",");
+                    }
+
+                    response.append("{\"id\":\"853c80ef3c3749fdaa49938b674adae6\",\"name\":\"jeb_\"}");
+                }
+
+                respond(exchange, response.append("]").toString());
+            }
+        });
+
+        server.createContext("/session/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String path = exchange.getRequestURI().getPath();
+                final String id = path.substring(path.lastIndexOf('/') + 1);
+
+                respond(exchange, "{\"id\":\"" + id + "\",\"name\":\""
+                        + (id.startsWith("069a79f4") ? "Notch" : "jeb_") + "\"}");
+            }
+        });
+
+        server.start();
+
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        server.stop(0);
+    }
+
+    private UUIDResolver createResolver(final long unknownNameTime) {
+        return new UUIDResolver(baseUrl + "/profiles", baseUrl + "/session/",
+                unknownNameTime);
+    }
+
+    @Test
+    public void resolvesUUIDAndCorrectName() throws Exception {
+        final UUIDResolver.Profile profile = createResolver(60000)
+                .resolveUUID("NOTCH").get();
+
+        assertEquals(NOTCH, profile.getUUID());
+        assertEquals("Notch", profile.getName());
+    }
+
+    @Test
+    public void lookupsOfTheSameNameAreCoalesced() throws Exception {
+        final UUIDResolver resolver = createResolver(60000);
+
+        gate = new CountDownLatch(1);
+
+        final Future<UUIDResolver.Profile> first = resolver.resolveUUID("Notch");
+
+        // Wait until the lookup is at the page.
+        final long deadline = System.currentTimeMillis() + 5000;
+
+        while (requests.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        final Future<UUIDResolver.Profile> second = resolver
+                .resolveUUID("notch");
+
+        assertSame(first, second);
+
+        gate.countDown();
+
+        assertEquals(NOTCH, second.get().getUUID());
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void namesAreLookedUpTogether() throws Exception {
+        final Map<String, Future<UUIDResolver.Profile>> futures = createResolver(
+                60000).resolveUUIDs(Arrays.asList("Notch", "jeb_", "Nobody"));
+
+        assertEquals(NOTCH, futures.get("Notch").get().getUUID());
+        assertEquals(JEB, futures.get("jeb_").get().getUUID());
+        assertNull(futures.get("Nobody").get());
+
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0).contains("\"notch\""));
+        assertTrue(requests.get(0).contains("\"jeb_\""));
+        assertTrue(requests.get(0).contains("\"nobody\""));
+    }
+
+    @Test
+    public void unknownNamesAreRemembered() throws Exception {
+        final UUIDResolver resolver = createResolver(60000);
+
+        assertNull(resolver.resolveUUID("Nobody").get());
+        assertEquals(1, requests.size());
+
+        // Any case, without asking again
+        final Future<UUIDResolver.Profile> again = resolver.resolveUUID("NOBODY");
+
+        assertTrue(again.isDone());
+        assertNull(again.get());
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void unknownNamesAreForgotten() throws Exception {
+        final UUIDResolver resolver = createResolver(50);
+
+        assertNull(resolver.resolveUUID("Nobody").get());
+
+        Thread.sleep(100);
+
+        assertNull(resolver.resolveUUID("Nobody").get());
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void knownNamesAreNotRemembered() throws Exception {
+        final UUIDResolver resolver = createResolver(60000);
+
+        assertEquals(NOTCH, resolver.resolveUUID("Notch").get().getUUID());
+        assertEquals(NOTCH, resolver.resolveUUID("Notch").get().getUUID());
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void resolvesNames() throws Exception {
+        final Map<UUID, Future<String>> futures = createResolver(60000)
+                .resolveNames(Arrays.asList(NOTCH, JEB));
+
+        assertEquals("Notch", futures.get(NOTCH).get());
+        assertEquals("jeb_", futures.get(JEB).get());
+    }
+}